@@ -0,0 +1,45 @@
+package networkdcq;
+
+/**
+ * Typical local status snapshot used by the benchmarks: a few numeric
+ * fields and a short text, exchanged natively or as NetworkSerializable 
+ */
+
+import networkdcq.util.NetworkSerializable;
+
+public class BenchmarkData extends NetworkApplicationData implements NetworkSerializable {
+
+	/** Serial version UID */
+	private static final long serialVersionUID = 5226711398346123145L;
+
+	public int id = 1;
+	public float x = 120.5f;
+	public float y = 48.25f;
+	public long timestamp = System.currentTimeMillis();
+	public String status = "running";
+
+	public BenchmarkData() {
+		setSourceHost(new Host("192.168.0.10", true));
+	}
+
+	@Override
+	public String networkSerialize() {
+		return ( id + "" + NetworkSerializable.VARIABLE_MEMBER_SEPARATOR +
+				 x + NetworkSerializable.VARIABLE_MEMBER_SEPARATOR +
+				 y + NetworkSerializable.VARIABLE_MEMBER_SEPARATOR +
+				 timestamp + NetworkSerializable.VARIABLE_MEMBER_SEPARATOR +
+				 status + NetworkSerializable.VARIABLE_END_OF_VARIABLES);
+	}
+
+	@Override
+	public Object networkDeserialize(String data) {
+		String values[] = data.split(""+NetworkSerializable.VARIABLE_MEMBER_SEPARATOR);
+		BenchmarkData result = new BenchmarkData();
+		result.id = Integer.parseInt(values[0]);
+		result.x = Float.parseFloat(values[1]);
+		result.y = Float.parseFloat(values[2]);
+		result.timestamp = Long.parseLong(values[3]);
+		result.status = values[4];
+		return result;
+	}
+}
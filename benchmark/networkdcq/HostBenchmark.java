@@ -0,0 +1,44 @@
+package networkdcq;
+
+/**
+ * Host multi-platform serialization benchmark
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import networkdcq.util.NetworkSerializable;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class HostBenchmark {
+
+	Host host;
+	String serialized;
+
+	@Setup
+	public void setup() {
+		host = new Host("192.168.0.10", true);
+		serialized = host.networkSerialize();
+		// networkDeserialize() receives the representation without the end-of-variables flag
+		serialized = serialized.substring(0, serialized.indexOf(NetworkSerializable.VARIABLE_END_OF_VARIABLES));
+	}
+
+	@Benchmark
+	public String networkSerialize() {
+		return host.networkSerialize();
+	}
+
+	@Benchmark
+	public Object networkDeserialize() {
+		return host.networkDeserialize(serialized);
+	}
+}
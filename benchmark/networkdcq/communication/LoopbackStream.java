@@ -0,0 +1,75 @@
+package networkdcq.communication;
+
+/**
+ * In-memory loopback for benchmarking stream based code in a single thread:
+ * bytes written to {@link #output} are read back from {@link #input}
+ */
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+public class LoopbackStream {
+
+	/** Pending bytes */
+	protected byte[] buffer = new byte[64 * 1024];
+	/** Read position */
+	protected int readPos = 0;
+	/** Write position */
+	protected int writePos = 0;
+
+	/** Writing side */
+	public final OutputStream output = new OutputStream() {
+		@Override
+		public void write(int b) {
+			ensureCapacity(1);
+			buffer[writePos++] = (byte)b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			ensureCapacity(len);
+			System.arraycopy(b, off, buffer, writePos, len);
+			writePos += len;
+		}
+	};
+
+	/** Reading side */
+	public final InputStream input = new InputStream() {
+		@Override
+		public int read() {
+			if (readPos == writePos)
+				return -1;
+			return buffer[readPos++] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (readPos == writePos)
+				return -1;
+			int count = Math.min(len, writePos - readPos);
+			System.arraycopy(buffer, readPos, b, off, count);
+			readPos += count;
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return writePos - readPos;
+		}
+	};
+
+	/**
+	 * Makes room for <code>length</code> more bytes, discarding the bytes already read
+	 */
+	protected void ensureCapacity(int length) {
+		if (readPos == writePos)
+			readPos = writePos = 0;
+		if (writePos + length <= buffer.length)
+			return;
+		byte[] larger = new byte[Math.max(buffer.length * 2, writePos - readPos + length)];
+		System.arraycopy(buffer, readPos, larger, 0, writePos - readPos);
+		writePos -= readPos;
+		readPos = 0;
+		buffer = larger;
+	}
+}
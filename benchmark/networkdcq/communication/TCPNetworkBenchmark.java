@@ -0,0 +1,82 @@
+package networkdcq.communication;
+
+/**
+ * TCPNetwork write() and receive() benchmark over an in-memory loopback stream, for native
+ * serialization (with complete or compact class descriptors) and for the multi-platform modes.  Run with <code>-prof gc</code> in order to
+ * get the allocation per operation.
+ */
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import networkdcq.BenchmarkData;
+import networkdcq.NetworkApplicationData;
+import networkdcq.NetworkDCQ;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TCPNetworkBenchmark {
+
+	/** Serialization: native, compact (native, see NativeCodec), delimited (multi-platform, default) or framed (multi-platform) */
+	@Param({"native", "compact", "delimited", "framed"})
+	public String serialization;
+
+	/** Writes to a discarding stream */
+	TCPNetwork writer;
+	/** Writes to and reads from the loopback */
+	TCPNetwork loopback;
+	BenchmarkData data;
+
+	@Setup
+	public void setup() throws Exception {
+		data = new BenchmarkData();
+		NetworkCommunication communication = NetworkDCQ.getCommunication();
+		boolean nativeSerialization = "native".equals(serialization) || "compact".equals(serialization);
+		NetworkCommunication.NATIVE_COMPACT_DESCRIPTORS = "compact".equals(serialization);
+		NativeCodec.registerClass(BenchmarkData.class);
+		communication.setSerializableData(nativeSerialization ? null : data);
+		communication.setSerializableMode("framed".equals(serialization) ? NetworkCommunication.SERIALIZABLE_MODE_FRAMED : NetworkCommunication.SERIALIZABLE_MODE_DELIMITED);
+
+		OutputStream discard = new OutputStream() {
+			@Override
+			public void write(int b) { }
+			@Override
+			public void write(byte[] b, int off, int len) { }
+		};
+		writer = new TCPNetwork((TCPCommunication)communication);
+		loopback = new TCPNetwork((TCPCommunication)communication);
+		LoopbackStream stream = new LoopbackStream();
+		if (communication.getSerializableData() == null) {
+			writer.toBuffer = NativeCodec.newOutputStream(discard);
+			loopback.toBuffer = NativeCodec.newOutputStream(stream.output);
+			loopback.toBuffer.flush();
+			loopback.fromBuffer = NativeCodec.newInputStream(stream.input);
+		}
+		else {
+			writer.toBufferSerializable = discard;
+			loopback.toBufferSerializable = stream.output;
+			loopback.fromBufferSerializable = stream.input;
+		}
+	}
+
+	@Benchmark
+	public void write() throws Exception {
+		writer.write(data);
+	}
+
+	@Benchmark
+	public NetworkApplicationData writeAndReceive() throws Exception {
+		loopback.write(data);
+		return loopback.receive();
+	}
+}
@@ -0,0 +1,55 @@
+package networkdcq.discovery;
+
+/**
+ * Discovery datagram processing benchmark, for an already known host (the steady state)
+ */
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import networkdcq.Host;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class UDPListenerBenchmark {
+
+	UDPListener listener;
+	byte[] received = new byte[UDPDiscovery.BUFFER_SIZE];
+	ByteBuffer direct = ByteBuffer.allocateDirect(UDPDiscovery.BUFFER_SIZE);
+	int length;
+	int sequence = 0;
+
+	@Setup
+	public void setup() throws Exception {
+		listener = new UDPListener(new UDPDiscovery());
+		listener.thisHostID = DiscoveryBeacon.toHostID("192.168.0.10");
+		HostDiscovery.otherHosts.put("192.168.0.20", new Host("192.168.0.20", true));
+		// First beacon registers the host ID
+		length = DiscoveryBeacon.encode(received, DiscoveryBeacon.toHostID("192.168.0.20"), DiscoveryBeacon.FLAG_ONLINE, sequence++, 1, 1000);
+		listener.managePing(received, length);
+		direct.put(received, 0, length);
+	}
+
+	@Benchmark
+	public void managePing() {
+		// Beacons of a known host, as received by UDPListener.run()
+		DiscoveryBeacon.encode(received, DiscoveryBeacon.getHostID(received), DiscoveryBeacon.FLAG_ONLINE, sequence++, 1, 1000);
+		listener.managePing(received, length);
+	}
+
+	@Benchmark
+	public void managePingDirect() {
+		// Beacons of a known host, as received by DiscoveryChannel.receive()
+		direct.putInt(DiscoveryBeacon.OFFSET_SEQUENCE, sequence++);
+		listener.managePing(direct, length);
+	}
+}
@@ -0,0 +1,232 @@
+package networkdcq.simulation;
+
+/**
+ * Runs a cluster of NetworkDCQ nodes in a single JVM in order to load test discovery and broadcast.
+ * Each node is a {@link SimulatedNode} with its own runtime, bound to its own loopback IP (127.0.x.y,
+ * available by default on Linux; other systems require loopback aliases).  Every node broadcasts snapshots of the configured size at the
+ * configured interval; the simulator reports discovery convergence, throughput, delivery ratio and
+ * end-to-end latency.
+ * <p>
+ * Usage: <code>ClusterSimulator [hosts] [intervalMS] [payloadSize] [seconds] [tcp|nio|udp] [native|compact|delimited|framed|delta] [discovery|gossip|direct] [plain|compressed]</code>
+ */
+
+import java.lang.management.ManagementFactory;
+
+import networkdcq.communication.NativeCodec;
+import networkdcq.communication.NetworkCommunication;
+import networkdcq.communication.NetworkCommunicationFactory;
+import networkdcq.discovery.HostDiscoveryFactory;
+
+public class ClusterSimulator {
+
+	/** Max time for every node to receive data from every other node (ms) */
+	public static int CONVERGENCE_TIMEOUT_MS = 30000;
+	/** Time between convergence checks (ms) */
+	public static int CONVERGENCE_CHECK_INTERVAL_MS = 100;
+
+	/** Amount of nodes */
+	protected int hosts = 10;
+	/** Interval between local status snapshots (ms) */
+	protected int intervalMS = 30;
+	/** Padding characters of every snapshot */
+	protected int payloadSize = 64;
+	/** Measurement duration (s) */
+	protected int seconds = 10;
+	/** NetworkCommunicationFactory method */
+	protected int method = NetworkCommunicationFactory.COMMUNICATION_METHOD_TCP;
+	/** NetworkCommunication serializable mode, or {@code SimulatedNode.SERIALIZATION_NATIVE} */
+	protected int serialization = SimulatedNode.SERIALIZATION_NATIVE;
+	/** Use host discovery, or connect every node to every other node directly */
+	protected boolean discovery = true;
+	/** HostDiscoveryFactory method */
+	protected int discoveryMethod = HostDiscoveryFactory.DISCOVERY_METHOD_UDP;
+
+	/** Node IPs */
+	protected String[] ips;
+	/** Node instances */
+	protected SimulatedNode[] nodes;
+
+	public static void main(String[] args) throws Exception {
+		ClusterSimulator simulator = new ClusterSimulator();
+		simulator.parse(args);
+		simulator.run();
+		System.exit(0);
+	}
+
+	/**
+	 * Reads the configuration from the command line
+	 * @param args see the usage in the class comment
+	 */
+	protected void parse(String[] args) {
+		if (args.length > 0)
+			hosts = Integer.parseInt(args[0]);
+		if (args.length > 1)
+			intervalMS = Integer.parseInt(args[1]);
+		if (args.length > 2)
+			payloadSize = Integer.parseInt(args[2]);
+		if (args.length > 3)
+			seconds = Integer.parseInt(args[3]);
+		if (args.length > 4) {
+			if ("nio".equals(args[4]))
+				method = NetworkCommunicationFactory.COMMUNICATION_METHOD_NIO;
+			else if ("udp".equals(args[4]))
+				method = NetworkCommunicationFactory.COMMUNICATION_METHOD_UDP;
+			else if (!"tcp".equals(args[4]))
+				throw new IllegalArgumentException("Unsupported communication method: " + args[4]);
+		}
+		if (args.length > 5) {
+			if ("delimited".equals(args[5]))
+				serialization = NetworkCommunication.SERIALIZABLE_MODE_DELIMITED;
+			else if ("framed".equals(args[5]))
+				serialization = NetworkCommunication.SERIALIZABLE_MODE_FRAMED;
+			else if ("delta".equals(args[5]))
+				serialization = NetworkCommunication.SERIALIZABLE_MODE_FRAMED_DELTA;
+			else if ("compact".equals(args[5])) {
+				NetworkCommunication.NATIVE_COMPACT_DESCRIPTORS = true;
+				NativeCodec.registerClass(SimulationData.class);
+			}
+			else if (!"native".equals(args[5]))
+				throw new IllegalArgumentException("Unsupported serialization: " + args[5]);
+		}
+		if (args.length > 6) {
+			discovery = !"direct".equals(args[6]);
+			if ("gossip".equals(args[6]))
+				discoveryMethod = HostDiscoveryFactory.DISCOVERY_METHOD_GOSSIP;
+			else if (discovery && !"discovery".equals(args[6]))
+				throw new IllegalArgumentException("Unsupported discovery: " + args[6]);
+		}
+		if (args.length > 7) {
+			NetworkCommunication.COMPRESSION_ENABLED = "compressed".equals(args[7]);
+			if (!NetworkCommunication.COMPRESSION_ENABLED && !"plain".equals(args[7]))
+				throw new IllegalArgumentException("Unsupported compression: " + args[7]);
+		}
+	}
+
+	/**
+	 * Starts the nodes, waits for the cluster to converge, measures and prints the report
+	 * @throws Exception in case of simulation error
+	 */
+	protected void run() throws Exception {
+		System.out.println("Nodes: " + hosts + ", interval: " + intervalMS + "ms, payload: " + payloadSize +
+				", method: " + method + ", serialization: " + serialization + ", discovery: " + (discovery ? discoveryMethod : "direct") +
+				", compression: " + NetworkCommunication.COMPRESSION_ENABLED);
+
+		// Startup
+		long startNS = System.nanoTime();
+		NetworkCommunication.BROADCAST_LOCAL_STATUS_INTERVAL_MS = intervalMS;
+		ips = new String[hosts];
+		nodes = new SimulatedNode[hosts];
+		for (int i = 0; i < hosts; i++) {
+			ips[i] = "127.0." + (1 + i / 250) + "." + (1 + i % 250);
+			nodes[i] = new SimulatedNode(ips[i], method, discoveryMethod, serialization, payloadSize);
+			if (!nodes[i].start(discovery))
+				throw new Exception("Cannot start node " + ips[i]);
+		}
+		if (!discovery)
+			for (SimulatedNode node : nodes)
+				node.connect(ips);
+		System.out.println("Startup: " + (System.nanoTime() - startNS) / 1000000 + "ms");
+
+		// Convergence: every node receives data from every other node
+		long convergenceStartNS = System.nanoTime();
+		long links = 0;
+		long deadline = System.currentTimeMillis() + CONVERGENCE_TIMEOUT_MS;
+		while (System.currentTimeMillis() < deadline) {
+			links = aggregate()[SimulatedNode.STAT_SOURCE_HOSTS];
+			if (links >= (long)hosts * (hosts - 1))
+				break;
+			Thread.sleep(CONVERGENCE_CHECK_INTERVAL_MS);
+		}
+		if (links >= (long)hosts * (hosts - 1))
+			System.out.println("Convergence: " + (System.nanoTime() - convergenceStartNS) / 1000000 + "ms");
+		else
+			System.out.println("Convergence: not reached, " + links + " of " + (long)hosts * (hosts - 1) + " links");
+
+		// Measurement
+		for (SimulatedNode node : nodes)
+			node.resetStats();
+		long measureStartNS = System.nanoTime();
+		Thread.sleep(seconds * 1000L);
+		long[] stats = aggregate();
+		double elapsedS = (System.nanoTime() - measureStartNS) / 1e9;
+		report(stats, elapsedS);
+
+		for (SimulatedNode node : nodes)
+			node.stop();
+	}
+
+	/**
+	 * Prints the measurement results
+	 * @param stats aggregated stats of every node
+	 * @param elapsedS measurement duration (s)
+	 */
+	protected void report(long[] stats, double elapsedS) {
+		long produced = stats[SimulatedNode.STAT_PRODUCED];
+		long received = stats[SimulatedNode.STAT_RECEIVED];
+		long expected = produced * (hosts - 1);
+		System.out.println("Known hosts: " + stats[SimulatedNode.STAT_KNOWN_HOSTS] + " of " + (long)hosts * (hosts - 1));
+		System.out.println("Lost hosts: " + stats[SimulatedNode.STAT_LOST_HOSTS]);
+		System.out.println(String.format("Dispatcher max depth: %d, max queue latency: %.2fms",
+				stats[SimulatedNode.STAT_QUEUE_MAX_DEPTH], stats[SimulatedNode.STAT_QUEUE_MAX_LATENCY_NS] / 1e6));
+		System.out.println(String.format("Broadcast max jitter: %.3fms, overruns: %d",
+				stats[SimulatedNode.STAT_TICK_MAX_JITTER_NS] / 1e6, stats[SimulatedNode.STAT_TICK_OVERRUNS]));
+		if (stats[SimulatedNode.STAT_UNCOMPRESSED_BYTES] > 0)
+			System.out.println(String.format("Compressed frames: %d -> %d bytes (%.1f%%)", stats[SimulatedNode.STAT_UNCOMPRESSED_BYTES],
+					stats[SimulatedNode.STAT_COMPRESSED_BYTES], 100.0 * stats[SimulatedNode.STAT_COMPRESSED_BYTES] / stats[SimulatedNode.STAT_UNCOMPRESSED_BYTES]));
+		System.out.println("Threads: " + ManagementFactory.getThreadMXBean().getThreadCount());
+		System.out.println(String.format("Produced: %.0f msg/s", produced / elapsedS));
+		System.out.println(String.format("Delivered: %.0f msg/s", received / elapsedS));
+		System.out.println(String.format("Delivery ratio: %.2f%%", expected == 0 ? 0 : 100.0 * received / expected));
+		if (received == 0)
+			return;
+		System.out.println(String.format("Latency avg: %.2fms, p50: %.2fms, p99: %.2fms, p99.9: %.2fms, max: %.2fms",
+				stats[SimulatedNode.STAT_TOTAL_LATENCY_NS] / (double)received / 1e6,
+				percentile(stats, received, 0.50), percentile(stats, received, 0.99), percentile(stats, received, 0.999),
+				stats[SimulatedNode.STAT_MAX_LATENCY_NS] / 1e6));
+	}
+
+	/**
+	 * Computes a latency percentile from the histogram
+	 * @param stats aggregated stats
+	 * @param received amount of latency samples
+	 * @param fraction percentile (0..1)
+	 * @return upper bound of the bucket containing the percentile (ms)
+	 */
+	protected double percentile(long[] stats, long received, double fraction) {
+		long target = (long)Math.ceil(received * fraction);
+		long count = 0;
+		for (int i = 0; i < SimulatedNode.LATENCY_BUCKETS; i++) {
+			count += stats[SimulatedNode.STAT_LATENCY_HISTOGRAM + i];
+			if (count >= target)
+				return (i + 1) * SimulatedNode.LATENCY_BUCKET_NS / 1e6;
+		}
+		return SimulatedNode.LATENCY_BUCKETS * SimulatedNode.LATENCY_BUCKET_NS / 1e6;
+	}
+
+	/**
+	 * Adds up the stats of every node (max latency is the max of every node)
+	 * @return aggregated stats
+	 */
+	protected long[] aggregate() {
+		long[] total = null;
+		for (SimulatedNode node : nodes) {
+			long[] stats = node.getStats();
+			if (total == null) {
+				total = stats;
+				continue;
+			}
+			for (int i = 0; i < stats.length; i++)
+				total[i] = isMax(i) ? Math.max(total[i], stats[i]) : total[i] + stats[i];
+		}
+		return total;
+	}
+
+	/**
+	 * @param stat a {@code SimulatedNode.STAT_} constant
+	 * @return true if the stat is aggregated as the max of every node, instead of the sum
+	 */
+	protected static boolean isMax(int stat) {
+		return stat == SimulatedNode.STAT_MAX_LATENCY_NS || stat == SimulatedNode.STAT_QUEUE_MAX_DEPTH || stat == SimulatedNode.STAT_QUEUE_MAX_LATENCY_NS ||
+				stat == SimulatedNode.STAT_TICK_MAX_JITTER_NS;
+	}
+}
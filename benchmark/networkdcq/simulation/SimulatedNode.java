@@ -0,0 +1,200 @@
+package networkdcq.simulation;
+
+/**
+ * A NetworkDCQ node of the cluster simulation.  Each instance has its own {@link NetworkDCQRuntime},
+ * so it runs a complete and isolated NetworkDCQ stack bound to its own loopback IP.
+ */
+
+import java.util.HashSet;
+
+import networkdcq.ConsumerDispatcher;
+import networkdcq.Host;
+import networkdcq.NetworkApplicationData;
+import networkdcq.NetworkApplicationDataConsumer;
+import networkdcq.NetworkApplicationDataProducer;
+import networkdcq.NetworkDCQRuntime;
+import networkdcq.communication.CompressionCodec;
+import networkdcq.communication.TCPClient;
+import networkdcq.communication.TCPCommunication;
+import networkdcq.qos.QoSMonitorFactory;
+import networkdcq.util.FixedRateTicker;
+import networkdcq.util.IterateableConcurrentHashMap;
+
+public class SimulatedNode implements NetworkApplicationDataConsumer, NetworkApplicationDataProducer {
+
+	/** Native serialization */
+	public static final int SERIALIZATION_NATIVE = -1;
+	/** Latency histogram resolution (ns) */
+	public static final long LATENCY_BUCKET_NS = 100000;
+	/** Latency histogram size.  The last bucket includes every higher latency */
+	public static final int LATENCY_BUCKETS = 20000;
+	/** Stats: snapshots produced */
+	public static final int STAT_PRODUCED = 0;
+	/** Stats: snapshots received */
+	public static final int STAT_RECEIVED = 1;
+	/** Stats: accumulated latency of the received snapshots (ns) */
+	public static final int STAT_TOTAL_LATENCY_NS = 2;
+	/** Stats: max latency of a received snapshot (ns) */
+	public static final int STAT_MAX_LATENCY_NS = 3;
+	/** Stats: hosts known by the discovery */
+	public static final int STAT_KNOWN_HOSTS = 4;
+	/** Stats: hosts received data from */
+	public static final int STAT_SOURCE_HOSTS = 5;
+	/** Stats: byeHost() notifications */
+	public static final int STAT_LOST_HOSTS = 6;
+	/** Stats: max depth of the consumer dispatcher, since startup */
+	public static final int STAT_QUEUE_MAX_DEPTH = 7;
+	/** Stats: max queue latency of the consumer dispatcher, since startup (ns) */
+	public static final int STAT_QUEUE_MAX_LATENCY_NS = 8;
+	/** Stats: max broadcast period jitter, since startup (ns) */
+	public static final int STAT_TICK_MAX_JITTER_NS = 9;
+	/** Stats: broadcast ticks which overran the next one, since startup */
+	public static final int STAT_TICK_OVERRUNS = 10;
+	/** Stats: size of the compressed frames before compression, since startup (bytes) */
+	public static final int STAT_UNCOMPRESSED_BYTES = 11;
+	/** Stats: size of the compressed frames after compression, since startup (bytes) */
+	public static final int STAT_COMPRESSED_BYTES = 12;
+	/** Stats: first bucket of the latency histogram */
+	public static final int STAT_LATENCY_HISTOGRAM = 13;
+
+	/** Loopback IP of this node */
+	protected String ip;
+	/** NetworkCommunication serializable mode, or {@code SERIALIZATION_NATIVE} */
+	protected int serialization;
+	/** Runtime of this node */
+	protected NetworkDCQRuntime runtime;
+	/** Payload filler */
+	protected String padding;
+
+	/** Snapshot sequence */
+	protected int sequence = 0;
+	/** Hosts received data from */
+	protected HashSet<String> sources = new HashSet<String>();
+	/** Counters, in the {@link #getStats()} layout */
+	protected long[] stats = new long[STAT_LATENCY_HISTOGRAM + LATENCY_BUCKETS];
+
+	/**
+	 * Constructor
+	 * @param ip loopback IP of this node
+	 * @param method NetworkCommunicationFactory method
+	 * @param discoveryMethod HostDiscoveryFactory method
+	 * @param serialization NetworkCommunication serializable mode, or {@code SERIALIZATION_NATIVE}
+	 * @param payloadSize padding characters of every snapshot
+	 */
+	public SimulatedNode(String ip, int method, int discoveryMethod, int serialization, int payloadSize) {
+		this.ip = ip;
+		this.serialization = serialization;
+		this.runtime = new NetworkDCQRuntime(method, discoveryMethod, QoSMonitorFactory.getDefaultQoSMonitor());
+		StringBuffer sb = new StringBuffer(payloadSize);
+		for (int i = 0; i < payloadSize; i++)
+			sb.append('x');
+		this.padding = sb.toString();
+	}
+
+	/**
+	 * Configures and starts the node services
+	 * @param discovery true if the host discovery must be started
+	 * @return true if startup was OK, or false otherwise
+	 * @throws Exception in case of error or misconfiguration
+	 */
+	public boolean start(boolean discovery) throws Exception {
+		runtime.setThisHost(new Host(ip, true));
+		runtime.setBindToHostIP(true);
+		if (!runtime.configureStartup(this, this, serialization == SERIALIZATION_NATIVE ? null : new SimulationData(), null))
+			return false;
+		if (serialization != SERIALIZATION_NATIVE)
+			runtime.getCommunication().setSerializableMode(serialization);
+		return runtime.doStartup(discovery, true, true);
+	}
+
+	/**
+	 * Connects to every other node, for simulations without host discovery
+	 * @param ips IP of every node
+	 */
+	public void connect(String[] ips) {
+		for (String target : ips)
+			if (!ip.equals(target))
+				runtime.getCommunication().connectToServerHost(new Host(target, true));
+	}
+
+	/**
+	 * Stops the node services
+	 */
+	public void stop() {
+		runtime.shutdown();
+	}
+
+	/**
+	 * @return a copy of the counters.  See the {@code STAT_} constants for the layout
+	 */
+	public synchronized long[] getStats() {
+		stats[STAT_KNOWN_HOSTS] = runtime.getOtherHosts().size();
+		stats[STAT_SOURCE_HOSTS] = sources.size();
+		if (runtime.getCommunication().getDispatcher() instanceof ConsumerDispatcher) {
+			ConsumerDispatcher dispatcher = (ConsumerDispatcher)runtime.getCommunication().getDispatcher();
+			stats[STAT_QUEUE_MAX_DEPTH] = dispatcher.getMaxDepth();
+			stats[STAT_QUEUE_MAX_LATENCY_NS] = dispatcher.getMaxLatencyNS();
+		}
+		FixedRateTicker ticker = runtime.getCommunication().getBroadcastTicker();
+		if (ticker != null) {
+			stats[STAT_TICK_MAX_JITTER_NS] = (long)ticker.getJitterNS();
+			stats[STAT_TICK_OVERRUNS] = ticker.getOverruns();
+		}
+		if (runtime.getCommunication() instanceof TCPCommunication) {
+			stats[STAT_UNCOMPRESSED_BYTES] = 0;
+			stats[STAT_COMPRESSED_BYTES] = 0;
+			IterateableConcurrentHashMap.Snapshot<String, Host> hosts = runtime.getOtherHosts().snapshot();
+			for (int i = 0; i < hosts.size(); i++) {
+				TCPClient client = ((TCPCommunication)runtime.getCommunication()).getClient(hosts.keyAt(i));
+				CompressionCodec compression = client == null ? null : client.getCompression();
+				if (compression != null) {
+					stats[STAT_UNCOMPRESSED_BYTES] += compression.getUncompressedBytes();
+					stats[STAT_COMPRESSED_BYTES] += compression.getCompressedBytes();
+				}
+			}
+		}
+		return stats.clone();
+	}
+
+	/**
+	 * Clears the traffic and latency counters, in order to start a new measurement
+	 */
+	public synchronized void resetStats() {
+		for (int i = 0; i < stats.length; i++)
+			stats[i] = 0;
+	}
+
+	@Override
+	public void newHost(Host aHost) {
+		runtime.getCommunication().connectToServerHost(aHost);
+	}
+
+	@Override
+	public synchronized void byeHost(Host aHost) {
+		stats[STAT_LOST_HOSTS]++;
+	}
+
+	@Override
+	public void newData(NetworkApplicationData receivedData) {
+		if (!(receivedData instanceof SimulationData))
+			return;
+		SimulationData data = (SimulationData)receivedData;
+		long latencyNS = System.nanoTime() - data.sentNS;
+		synchronized (this) {
+			if (data.getSourceHost() != null)
+				sources.add(data.getSourceHost().getHostIP());
+			stats[STAT_RECEIVED]++;
+			stats[STAT_TOTAL_LATENCY_NS] += latencyNS;
+			stats[STAT_MAX_LATENCY_NS] = Math.max(stats[STAT_MAX_LATENCY_NS], latencyNS);
+			stats[STAT_LATENCY_HISTOGRAM + (int)Math.min(LATENCY_BUCKETS - 1, Math.max(0, latencyNS / LATENCY_BUCKET_NS))]++;
+		}
+	}
+
+	@Override
+	public NetworkApplicationData produceNetworkApplicationData() {
+		synchronized (this) {
+			stats[STAT_PRODUCED]++;
+		}
+		return new SimulationData(runtime.getThisHost(), sequence++, System.nanoTime(), padding);
+	}
+}
@@ -0,0 +1,48 @@
+package networkdcq.simulation;
+
+/**
+ * Local status snapshot exchanged by the simulated nodes.  Carries its send time, so the
+ * receiver can compute the end-to-end latency (every node shares the same JVM clock), and
+ * a padding field to reach the configured payload size.
+ */
+
+import networkdcq.Host;
+import networkdcq.NetworkApplicationData;
+import networkdcq.util.NetworkSerializable;
+
+public class SimulationData extends NetworkApplicationData implements NetworkSerializable {
+
+	/** Serial version UID */
+	private static final long serialVersionUID = -4178962390817350134L;
+
+	/** Snapshot sequence of the sender */
+	public int sequence;
+	/** System.nanoTime() at production time */
+	public long sentNS;
+	/** Payload filler */
+	public String padding;
+
+	public SimulationData() {
+	}
+
+	public SimulationData(Host source, int sequence, long sentNS, String padding) {
+		setSourceHost(source);
+		this.sequence = sequence;
+		this.sentNS = sentNS;
+		this.padding = padding;
+	}
+
+	@Override
+	public String networkSerialize() {
+		return ( getSourceHost().getHostIP() + NetworkSerializable.VARIABLE_MEMBER_SEPARATOR +
+				 sequence + NetworkSerializable.VARIABLE_MEMBER_SEPARATOR +
+				 sentNS + NetworkSerializable.VARIABLE_MEMBER_SEPARATOR +
+				 padding + NetworkSerializable.VARIABLE_END_OF_VARIABLES);
+	}
+
+	@Override
+	public Object networkDeserialize(String data) {
+		String values[] = data.split(""+NetworkSerializable.VARIABLE_MEMBER_SEPARATOR);
+		return new SimulationData(new Host(values[0], true), Integer.parseInt(values[1]), Long.parseLong(values[2]), values[3]);
+	}
+}
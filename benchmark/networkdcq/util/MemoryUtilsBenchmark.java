@@ -0,0 +1,35 @@
+package networkdcq.util;
+
+/**
+ * MemoryUtils benchmark (used by QoSMonitor for every MPS calculation)
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import networkdcq.BenchmarkData;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MemoryUtilsBenchmark {
+
+	BenchmarkData data;
+
+	@Setup
+	public void setup() {
+		data = new BenchmarkData();
+	}
+
+	@Benchmark
+	public int sizeOf() {
+		return MemoryUtils.sizeOf(data);
+	}
+}
@@ -0,0 +1,332 @@
+package networkdcq;
+
+/**
+ * Stage between the network threads and the {@link NetworkApplicationDataConsumer}: host events and received
+ * messages are queued and delivered by the consumer executor of the runtime, so slow application code
+ * does not stall socket reads.  Events are spread over lanes by host, each lane being a bounded ring buffer
+ * drained by at most one task at a time, so the events of a host are delivered in the order they were
+ * received.  A network thread finding its lane full waits for room (TCP peers are slowed down, instead
+ * of losing messages).  Queue depth and latency are available through the getters and {@link #toString()}.
+ */
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import networkdcq.util.Logger;
+
+public class ConsumerDispatcher implements NetworkApplicationDataConsumer {
+
+	/** If false, network threads invoke the consumer directly (see {@code NetworkCommunication.getDispatcher()}) */
+	public static boolean DISPATCHER_ENABLED = true;
+	/** Amount of lanes (rounded up to a power of two) */
+	public static int DISPATCHER_LANES = 8;
+	/** Events per lane (rounded up to a power of two) */
+	public static int DISPATCHER_LANE_CAPACITY = 1024;
+	/** Max events delivered by a task before giving the thread back to the executor */
+	public static int DISPATCHER_BATCH = 64;
+	/** Max wait of a network thread for room in a full lane before checking again (ms) */
+	protected static final int FULL_LANE_WAIT_MS = 1;
+
+	/** Event: new host */
+	protected static final byte EVENT_NEW_HOST = 0;
+	/** Event: host gone */
+	protected static final byte EVENT_BYE_HOST = 1;
+	/** Event: message received */
+	protected static final byte EVENT_NEW_DATA = 2;
+
+	/**
+	 * A bounded ring buffer of events, written by the network threads and drained by one task at a time
+	 */
+	protected class Lane implements Runnable {
+		/** Event kinds */
+		protected final byte[] kinds;
+		/** Event hosts or messages */
+		protected final Object[] items;
+		/** Event enqueue times (System.nanoTime()) */
+		protected final long[] times;
+		/** Slot index mask */
+		protected final int mask;
+		/** Next event to deliver */
+		protected volatile long head = 0;
+		/** Next free slot */
+		protected volatile long tail = 0;
+		/** True while a drain task is queued or running */
+		protected final AtomicBoolean scheduled = new AtomicBoolean(false);
+		/** Thread delivering the events of this lane, if any */
+		protected volatile Thread drainer = null;
+		/** A network thread waits for room */
+		protected volatile boolean waiting = false;
+		/** Delivered events */
+		protected volatile long delivered = 0;
+		/** Sum of the queue latencies of the delivered events (ns) */
+		protected volatile long totalLatencyNS = 0;
+		/** Max queue latency (ns) */
+		protected volatile long maxLatencyNS = 0;
+		/** Max observed depth */
+		protected volatile int maxDepth = 0;
+		/** Times a network thread had to wait for room */
+		protected volatile long stalls = 0;
+
+		/**
+		 * Creates an empty lane
+		 * @param capacity amount of events (power of two)
+		 */
+		protected Lane(int capacity) {
+			kinds = new byte[capacity];
+			items = new Object[capacity];
+			times = new long[capacity];
+			mask = capacity - 1;
+		}
+
+		/**
+		 * Queues an event, waiting for room if the lane is full, and schedules the drain task
+		 * @param kind event kind
+		 * @param item event host or message
+		 */
+		protected void publish(byte kind, Object item) {
+			synchronized (this) {
+				long position = tail;
+				if (position - head > mask) {
+					stalls++;
+					waiting = true;
+					try {
+						while ((position = tail) - head > mask)
+							wait(FULL_LANE_WAIT_MS);
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						Logger.w("Event lost, dispatcher lane full");
+						return;
+					}
+					finally {
+						waiting = false;
+					}
+				}
+				int slot = (int)(position & mask);
+				kinds[slot] = kind;
+				items[slot] = item;
+				times[slot] = System.nanoTime();
+				tail = position + 1;
+				int depth = (int)(position + 1 - head);
+				if (depth > maxDepth)
+					maxDepth = depth;
+			}
+			schedule();
+		}
+
+		/**
+		 * Submits the drain task to the consumer executor, unless already submitted
+		 */
+		protected void schedule() {
+			if (scheduled.compareAndSet(false, true))
+				runtime.executeConsumer(this);
+		}
+
+		/**
+		 * Delivers up to {@code DISPATCHER_BATCH} events, then reschedules itself if more are queued
+		 */
+		public void run() {
+			drainer = Thread.currentThread();
+			try {
+				for (int i = 0; i < DISPATCHER_BATCH && head != tail; i++) {
+					long position = head;
+					int slot = (int)(position & mask);
+					byte kind = kinds[slot];
+					Object item = items[slot];
+					long latencyNS = System.nanoTime() - times[slot];
+					items[slot] = null;
+					head = position + 1;
+					if (waiting) {
+						synchronized (this) {
+							notifyAll();
+						}
+					}
+					deliver(kind, item);
+					delivered++;
+					totalLatencyNS += latencyNS;
+					if (latencyNS > maxLatencyNS)
+						maxLatencyNS = latencyNS;
+				}
+			}
+			finally {
+				drainer = null;
+				scheduled.set(false);
+				if (head != tail)
+					schedule();
+			}
+		}
+	}
+
+	/** Application consumer */
+	protected final NetworkApplicationDataConsumer consumer;
+	/** Runtime whose consumer executor delivers the events */
+	protected final NetworkDCQRuntime runtime;
+	/** Lanes, selected by host IP */
+	protected final Lane[] lanes;
+	/** Lane index mask */
+	protected final int laneMask;
+
+	/**
+	 * Creates a dispatcher
+	 * @param consumer application consumer
+	 * @param runtime runtime whose consumer executor delivers the events (see {@link NetworkDCQRuntime#setConsumerExecutor(java.util.concurrent.Executor)})
+	 */
+	public ConsumerDispatcher(NetworkApplicationDataConsumer consumer, NetworkDCQRuntime runtime) {
+		this.consumer = consumer;
+		this.runtime = runtime;
+		int laneCount = powerOfTwo(DISPATCHER_LANES);
+		int capacity = powerOfTwo(DISPATCHER_LANE_CAPACITY);
+		lanes = new Lane[laneCount];
+		for (int i = 0; i < laneCount; i++)
+			lanes[i] = new Lane(capacity);
+		laneMask = laneCount - 1;
+	}
+
+	/**
+	 * Queues a new host event
+	 * @param aHost the new host
+	 */
+	public void newHost(Host aHost) {
+		dispatch(EVENT_NEW_HOST, aHost, aHost.getHostIP());
+	}
+
+	/**
+	 * Queues a gone host event
+	 * @param aHost the gone host
+	 */
+	public void byeHost(Host aHost) {
+		dispatch(EVENT_BYE_HOST, aHost, aHost.getHostIP());
+	}
+
+	/**
+	 * Queues a received message
+	 * @param receivedData the message
+	 */
+	public void newData(NetworkApplicationData receivedData) {
+		Host source = receivedData.getSourceHost();
+		dispatch(EVENT_NEW_DATA, receivedData, source != null ? source.getHostIP() : null);
+	}
+
+	/**
+	 * Queues an event in the lane of its host.  Events raised by the consumer itself (from a drain task
+	 * of the same lane) are delivered directly, as waiting for room would never end
+	 * @param kind event kind
+	 * @param item event host or message
+	 * @param hostIP host the event belongs to, or null if unknown
+	 */
+	protected void dispatch(byte kind, Object item, String hostIP) {
+		int hash = hostIP != null ? hostIP.hashCode() * 0x9E3779B9 : 0;
+		Lane lane = lanes[(hash ^ (hash >>> 16)) & laneMask];
+		if (lane.drainer == Thread.currentThread())
+			deliver(kind, item);
+		else
+			lane.publish(kind, item);
+	}
+
+	/**
+	 * Invokes the consumer.  Its exceptions are logged, so that the following events are still delivered
+	 * @param kind event kind
+	 * @param item event host or message
+	 */
+	protected void deliver(byte kind, Object item) {
+		try {
+			if (kind == EVENT_NEW_DATA)
+				consumer.newData((NetworkApplicationData)item);
+			else if (kind == EVENT_NEW_HOST)
+				consumer.newHost((Host)item);
+			else
+				consumer.byeHost((Host)item);
+		}
+		catch (Exception e) {
+			Logger.e(e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the application consumer
+	 */
+	public NetworkApplicationDataConsumer getConsumer() {
+		return consumer;
+	}
+
+	/**
+	 * @return events queued and not yet delivered
+	 */
+	public int getDepth() {
+		int depth = 0;
+		for (Lane lane : lanes)
+			depth += (int)(lane.tail - lane.head);
+		return depth;
+	}
+
+	/**
+	 * @return max events queued in a single lane
+	 */
+	public int getMaxDepth() {
+		int maxDepth = 0;
+		for (Lane lane : lanes)
+			maxDepth = Math.max(maxDepth, lane.maxDepth);
+		return maxDepth;
+	}
+
+	/**
+	 * @return delivered events
+	 */
+	public long getDelivered() {
+		long delivered = 0;
+		for (Lane lane : lanes)
+			delivered += lane.delivered;
+		return delivered;
+	}
+
+	/**
+	 * @return mean time from enqueue to delivery (ns)
+	 */
+	public long getMeanLatencyNS() {
+		long delivered = 0;
+		long totalLatencyNS = 0;
+		for (Lane lane : lanes) {
+			delivered += lane.delivered;
+			totalLatencyNS += lane.totalLatencyNS;
+		}
+		return delivered > 0 ? totalLatencyNS / delivered : 0;
+	}
+
+	/**
+	 * @return max time from enqueue to delivery (ns)
+	 */
+	public long getMaxLatencyNS() {
+		long maxLatencyNS = 0;
+		for (Lane lane : lanes)
+			maxLatencyNS = Math.max(maxLatencyNS, lane.maxLatencyNS);
+		return maxLatencyNS;
+	}
+
+	/**
+	 * @return times a network thread had to wait for room in a full lane
+	 */
+	public long getStalls() {
+		long stalls = 0;
+		for (Lane lane : lanes)
+			stalls += lane.stalls;
+		return stalls;
+	}
+
+	/**
+	 * @return queue statistics
+	 */
+	public String toString() {
+		return "delivered: " + getDelivered() + ", depth: " + getDepth() + ", max depth: " + getMaxDepth() +
+				", latency avg: " + getMeanLatencyNS() / 1000 + "us, max: " + getMaxLatencyNS() / 1000 + "us, stalls: " + getStalls();
+	}
+
+	/**
+	 * @param value a positive value
+	 * @return the smallest power of two greater or equal than the value
+	 */
+	protected static int powerOfTwo(int value) {
+		int result = 1;
+		while (result < value)
+			result <<= 1;
+		return result;
+	}
+}
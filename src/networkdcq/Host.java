@@ -8,6 +8,7 @@ import java.net.SocketException;
 import java.util.Enumeration;
 
 import networkdcq.util.NetworkSerializable;
+import networkdcq.util.PhiAccrualFailureDetector;
 
 public class Host implements Serializable, NetworkSerializable {
 
@@ -19,6 +20,10 @@ public class Host implements Serializable, NetworkSerializable {
 	private boolean onLine;
 	/** Last ping (for timeOut validation) */
 	private long lastPing = System.currentTimeMillis();
+	/** Liveness of the host, fed with its pings (optional) */
+	private transient PhiAccrualFailureDetector failureDetector = null;
+	/** The host decompresses frames, as told by its discovery beacons */
+	private transient volatile boolean compressionSupported = false;
 	
 	public String toString() {
 	    return " (" + hostIP + ") - " + (onLine?"Online":"Offline");
@@ -98,8 +103,33 @@ public class Host implements Serializable, NetworkSerializable {
     public void updateHostStatus(boolean onLine) {
     	setOnLine(onLine);
     	setLastPing(System.currentTimeMillis());
+    	PhiAccrualFailureDetector detector = failureDetector;
+    	if (detector != null)
+    		detector.heartbeat(lastPing);
     }
 
+	public PhiAccrualFailureDetector getFailureDetector() {
+		return failureDetector;
+	}
+
+	/**
+	 * Sets the failure detector of this host.  Receives a first heartbeat at the last ping
+	 * @param failureDetector the failure detector, or null for none
+	 */
+	public void setFailureDetector(PhiAccrualFailureDetector failureDetector) {
+		if (failureDetector != null)
+			failureDetector.heartbeat(lastPing);
+		this.failureDetector = failureDetector;
+	}
+
+	public boolean isCompressionSupported() {
+		return compressionSupported;
+	}
+
+	public void setCompressionSupported(boolean compressionSupported) {
+		this.compressionSupported = compressionSupported;
+	}
+
 	@Override
 	public String networkSerialize() {
 		return ( hostIP + NetworkSerializable.VARIABLE_MEMBER_SEPARATOR +
@@ -0,0 +1,18 @@
+package networkdcq;
+
+/**
+ * Optionally implemented by a {@link NetworkApplicationDataProducer} which knows when its local
+ * information changes.  With {@code NetworkCommunication.BROADCAST_ON_CHANGE}, unchanged ticks are then
+ * suppressed without producing nor serializing a snapshot.  Producers not implementing this interface
+ * are compared by the serialized form of their snapshots.
+ */
+
+public interface NetworkApplicationDataChangeTracker {
+
+	/**
+	 * Checks whether the local information changed since the last invocation
+	 * of <code>produceNetworkApplicationData()</code>
+	 * @return true if a new snapshot must be sent to the other hosts
+	 */
+	public boolean isLocalStatusChanged();
+}
@@ -2,7 +2,8 @@ package networkdcq;
 
 /**
  * Network support main class.  Applications interested in using this framework should
- * invoke the static methods configureStartup() and doStartup() in that order.
+ * invoke the static methods configureStartup() and doStartup() in that order.  These methods
+ * use a default {@link NetworkDCQRuntime}.
  */
 
 import java.io.Serializable;
@@ -15,25 +16,19 @@ import networkdcq.discovery.HostDiscovery;
 import networkdcq.discovery.HostDiscoveryFactory;
 import networkdcq.qos.QoSMonitor;
 import networkdcq.qos.QoSMonitorFactory;
-import networkdcq.util.Logger;
 import networkdcq.util.NetworkSerializable;
 
 public class NetworkDCQ {
 
 	/**
-	 * NetworkCommunication implementation logic
+	 * Runtime used by the static methods
 	 */
-	protected static NetworkCommunication networkCommunication = null;
+	protected static NetworkDCQRuntime runtime = null;
 	
 	/**
-	 * NetworkDicovery implementation logic
+	 * Has configureStartup() been invoked?
 	 */
-	protected static HostDiscovery networkDiscovery = null;
-	
-	/**
-	 * QoSMonitor implementation logic
-	 */
-	protected static QoSMonitor qoSMonitor = null;
+	protected static boolean configured = false;
 	
 	
 	/**
@@ -54,24 +49,8 @@ public class NetworkDCQ {
 	 */
 	public static boolean configureStartup(NetworkApplicationDataConsumer consumer, NetworkApplicationDataProducer producer, NetworkSerializable serializableData, Context context) throws Exception {
 		
-		try {
-	    	// Discovery handler
-	        networkDiscovery = getDiscovery();
-	        // Communication listener
-	        networkCommunication = getCommunication();
-	        networkCommunication.setConsumer(consumer);
-	        networkCommunication.setProducer(producer);
-	        networkCommunication.setSerializableData(serializableData);
-	        // QoS monitor
-	        qoSMonitor = getQoS();
-	        qoSMonitor.setContext(context);
-	        return true;
-		} 
-		catch (Exception e) {
-			Logger.e(e.getMessage());
-			return false;
-		}
-        
+		configured = true;
+		return getRuntime().configureStartup(consumer, producer, serializableData, context);
 	}
 	
 	/**
@@ -96,64 +75,79 @@ public class NetworkDCQ {
 	public static boolean doStartup(boolean startHostDicovery, boolean startCommunicationService, boolean startNetworkBroadcast) throws Exception {
 		
 		// Was the startup correctly configured?
-		if (networkCommunication==null || (networkDiscovery==null))
+		if (!configured)
 			throw new Exception ("NetworkDCQ not configured.  Invoke configureStartup() first.");
-		if (startCommunicationService && networkCommunication.getConsumer() == null)
-			throw new Exception ("Cannot start communication service without a consumer");
-		if (startNetworkBroadcast && networkCommunication.getProducer() == null)
-			throw new Exception ("Cannot start broadcast without a producer");
-		
-		try {
-			if (HostDiscovery.NO_NETWORK_IP.equals(HostDiscovery.thisHost.getHostIP())) {
-				Logger.w("Cannot start network services.  No network detected");
-				return false;
-			}
-			// Communication server
-			if (startCommunicationService && !networkCommunication.startService())
-				throw new Exception ("Error starting network communication service");
-	        
-	        // Discovery service
-	        if (startHostDicovery && !networkDiscovery.startDiscovery())
-	        	throw new Exception ("Error starting network discovery service");
-	        
-	        // Communication client
-	        if (startNetworkBroadcast && !networkCommunication.startBroadcast())
-	        	throw new Exception ("Error starting network communication broadcast");
-	        	
-	        return true;
+		return getRuntime().doStartup(startHostDicovery, startCommunicationService, startNetworkBroadcast);
+	}
+
+	/**
+	 * Same as {@link #doStartup(boolean, boolean, boolean)}, but returns without waiting for the services
+	 * to be up.  The local host is resolved, and then the services are started in parallel (the discovery
+	 * after the communication service, see {@link NetworkDCQStartup}).
+	 * Must execute the proper configuration first!
+	 *
+	 * @param startHostDicovery
+	 * 		Set to true if host discovery service is needed
+	 * @param startCommunicationService
+	 * 		Set to true if network communication service for receiving application-level information from other hosts is needed
+	 * @param startNetworkBroadcast
+	 * 		Set to true if network broadcast application-level information must be sent periodically to other hosts
+	 *
+	 * @return
+	 * 		the pending startup, which reports the result and the time of every phase
+	 * @throws
+	 * 		Exception in case of misconfiguration
+	 */
+	public static NetworkDCQStartup startup(boolean startHostDicovery, boolean startCommunicationService, boolean startNetworkBroadcast) throws Exception {
+
+		// Was the startup correctly configured?
+		if (!configured)
+			throw new Exception ("NetworkDCQ not configured.  Invoke configureStartup() first.");
+		return getRuntime().startup(startHostDicovery, startCommunicationService, startNetworkBroadcast);
+	}
+
+	/**
+	 * Retrieves the runtime used by the static methods.  On first use it is created with the instances 
+	 * selected through the factories, <code>HostDiscovery.getThisHost()</code> and <code>HostDiscovery.otherHosts</code>.
+	 * Applications needing several independent groups should create their own {@link NetworkDCQRuntime} instances
+	 * @return the default runtime
+	 */
+	public static synchronized NetworkDCQRuntime getRuntime() {
+		if (runtime == null) {
+			runtime = new NetworkDCQRuntime(
+					NetworkCommunicationFactory.getNetworkCommunication(NetworkCommunicationFactory.getDefaultNetworkCommunication()),
+					HostDiscoveryFactory.getHostDiscovery(HostDiscoveryFactory.getDefaultDiscoveryMethod()),
+					QoSMonitorFactory.getQosMonitor(QoSMonitorFactory.getDefaultQoSMonitor()),
+					HostDiscovery.otherHosts);
 		}
-		catch (Exception e) {
-			Logger.e(e.getMessage());
-			return false;
-		}		
-        
+		return runtime;
 	}
 
 	/**
 	 * Shortcut for:
-	 * <code>HostDiscoveryFactory.getHostDiscovery(HostDiscoveryFactory.getDefaultDiscoveryMethod())</code>
+	 * <code>getRuntime().getDiscovery()</code>
 	 * @return the default discovery method instance
 	 */
 	public static HostDiscovery getDiscovery() {
-		return HostDiscoveryFactory.getHostDiscovery(HostDiscoveryFactory.getDefaultDiscoveryMethod());
+		return getRuntime().getDiscovery();
 	}
 	
 	/**
 	 * Shortcut for:
-	 * <code>NetworkCommunicationFactory.getNetworkCommunication(NetworkCommunicationFactory.getDefaultNetworkCommunication())</code>
+	 * <code>getRuntime().getCommunication()</code>
 	 * @return the default network communication instance
 	 */
 	public static NetworkCommunication getCommunication() {
-		return NetworkCommunicationFactory.getNetworkCommunication(NetworkCommunicationFactory.getDefaultNetworkCommunication());
+		return getRuntime().getCommunication();
 	}
 
 	/**
 	 * Shortcut for:
-	 * <code>QoSMonitorFactory.getQosMonitor(QoSMonitorFactory.getDefaultQoSMonitor())</code>
+	 * <code>getRuntime().getQoS()</code>
 	 * @return the default QoS Monitor instance
 	 */
 	public static QoSMonitor getQoS() {
-		return QoSMonitorFactory.getQosMonitor(QoSMonitorFactory.getDefaultQoSMonitor());
+		return getRuntime().getQoS();
 	}	
 	
 }
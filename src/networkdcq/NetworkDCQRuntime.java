@@ -0,0 +1,547 @@
+package networkdcq;
+
+/**
+ * An independent NetworkDCQ instance: its own communication, discovery and QoS monitor, host table,
+ * local host and ports.  Several runtimes (for example groups using different ports) can run in the
+ * same process, sharing the executor which runs their threads.  The static methods of {@link NetworkDCQ}
+ * use a default runtime, whose host table is {@code HostDiscovery.otherHosts}.
+ */
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.UnknownHostException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.content.Context;
+
+import networkdcq.communication.MulticastCommunication;
+import networkdcq.communication.NetworkCommunication;
+import networkdcq.communication.NetworkCommunicationFactory;
+import networkdcq.communication.TCPNetwork;
+import networkdcq.communication.UDPCommunication;
+import networkdcq.discovery.HostDiscovery;
+import networkdcq.discovery.HostDiscoveryFactory;
+import networkdcq.qos.QoSMonitor;
+import networkdcq.qos.QoSMonitorFactory;
+import networkdcq.util.IterateableConcurrentHashMap;
+import networkdcq.util.Logger;
+import networkdcq.util.NetworkSerializable;
+
+public class NetworkDCQRuntime {
+
+	/** Executor shared by every runtime without an executor of its own */
+	protected static ExecutorService sharedExecutor = null;
+
+	/** NetworkCommunication implementation logic */
+	protected NetworkCommunication communication;
+	/** NetworkDicovery implementation logic */
+	protected HostDiscovery discovery;
+	/** QoSMonitor implementation logic */
+	protected QoSMonitor qoSMonitor;
+	/** Host local (resolved on first use, unless set) */
+	protected Host thisHost = null;
+	/** The other hosts list. IP->Host details */
+	protected IterateableConcurrentHashMap<String, Host> otherHosts;
+	/** Runs the threads of this runtime (null for the shared executor) */
+	protected Executor executor = null;
+	/** Delivers the events of the consumer dispatcher (null for the executor of this runtime) */
+	protected Executor consumerExecutor = null;
+	/** TCP port for the communication services */
+	protected int tcpPort = TCPNetwork.TCP_PORT;
+	/** UDP port for discovery */
+	protected int discoveryPort = HostDiscovery.DEFAULT_DISCOVERY_PORT;
+	/** UDP group for discovery */
+	protected String discoveryGroup = HostDiscovery.DEFAULT_DISCOVERY_GROUP;
+	/** UDP port for gossip discovery messages ({@code DISCOVERY_METHOD_GOSSIP}) */
+	protected int gossipPort = HostDiscovery.DEFAULT_GOSSIP_PORT;
+	/** UDP port for local status snapshots ({@code COMMUNICATION_METHOD_UDP}) */
+	protected int udpDataPort = UDPCommunication.UDP_DATA_PORT;
+	/** UDP port for local status snapshots ({@code COMMUNICATION_METHOD_MULTICAST}) */
+	protected int multicastDataPort = MulticastCommunication.MULTICAST_DATA_PORT;
+	/** UDP group for local status snapshots ({@code COMMUNICATION_METHOD_MULTICAST}) */
+	protected String multicastDataGroup = MulticastCommunication.MULTICAST_DATA_GROUP;
+	/** If true, sockets are bound to the IP of this host instead of every local address */
+	protected boolean bindToHostIP = false;
+
+	/**
+	 * Creates a runtime with the default communication, discovery and QoS methods
+	 */
+	public NetworkDCQRuntime() {
+		this(NetworkCommunicationFactory.getDefaultNetworkCommunication(), HostDiscoveryFactory.getDefaultDiscoveryMethod(), QoSMonitorFactory.getDefaultQoSMonitor());
+	}
+
+	/**
+	 * Creates a runtime with new instances of the given methods and an empty host table
+	 * @param communicationMethod identifier of the network communication method (see NetworkCommunicationFactory)
+	 * @param discoveryMethod identifier of the host discovery method (see HostDiscoveryFactory)
+	 * @param qoSMonitorType identifier of the QoS monitor (see QoSMonitorFactory)
+	 */
+	public NetworkDCQRuntime(int communicationMethod, int discoveryMethod, int qoSMonitorType) {
+		this(NetworkCommunicationFactory.createNetworkCommunication(communicationMethod),
+			 HostDiscoveryFactory.createHostDiscovery(discoveryMethod),
+			 QoSMonitorFactory.createQosMonitor(qoSMonitorType),
+			 new IterateableConcurrentHashMap<String, Host>());
+	}
+
+	/**
+	 * Creates a runtime with the given instances, which must not be used by any other runtime
+	 * @param communication network communication instance
+	 * @param discovery host discovery instance
+	 * @param qoSMonitor QoS monitor instance
+	 * @param otherHosts host table
+	 */
+	public NetworkDCQRuntime(NetworkCommunication communication, HostDiscovery discovery, QoSMonitor qoSMonitor, IterateableConcurrentHashMap<String, Host> otherHosts) {
+		if (communication == null || discovery == null || qoSMonitor == null)
+			throw new IllegalArgumentException("Unknown communication, discovery or QoS method");
+		this.communication = communication;
+		this.discovery = discovery;
+		this.qoSMonitor = qoSMonitor;
+		this.otherHosts = otherHosts;
+		communication.setRuntime(this);
+		discovery.setRuntime(this);
+		qoSMonitor.setRuntime(this);
+	}
+
+	/**
+	 * Configures this runtime.  See {@link NetworkDCQ#configureStartup(NetworkApplicationDataConsumer, NetworkApplicationDataProducer, NetworkSerializable, Context)}
+	 * @param consumer
+	 * 		instance in charge of updating the local model based on the received messages from other hosts
+	 * @param producer
+	 * 		instance in charge of setting the local information to be broadcasted periodically to the other hosts (optional)
+	 * @param data
+	 * 		subclass of NetworkApplicationData that also implements NetworkSerializable (for multi-platform exchange) (optional)
+	 * 		if this parameter is null, then default Android {@link Serializable} logic is used
+	 * @param context
+	 * 		Android context.  Required for QoS features only.  A null value can be passed if not needed.
+	 * @return
+	 * 		true of configuration was OK, or false otherwise
+	 */
+	public boolean configureStartup(NetworkApplicationDataConsumer consumer, NetworkApplicationDataProducer producer, NetworkSerializable serializableData, Context context) {
+		try {
+	        // Communication listener
+	        communication.setConsumer(consumer);
+	        communication.setProducer(producer);
+	        communication.setSerializableData(serializableData);
+	        // QoS monitor
+	        qoSMonitor.setContext(context);
+	        return true;
+		}
+		catch (Exception e) {
+			Logger.e(e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Starts the services of this runtime and waits for them.  See {@link NetworkDCQ#doStartup(boolean, boolean, boolean)}.
+	 * Must not be invoked from a thread of the executor of this runtime
+	 * @param startHostDicovery
+	 * 		Set to true if host discovery service is needed
+	 * @param startCommunicationService
+	 * 		Set to true if network communication service for receiving application-level information from other hosts is needed
+	 * @param startNetworkBroadcast
+	 * 		Set to true if network broadcast application-level information must be sent periodically to other hosts
+	 * @return
+	 * 		true if startup was OK, or false otherwise
+	 * @throws
+	 * 		Exception in case of misconfiguration
+	 */
+	public boolean doStartup(boolean startHostDicovery, boolean startCommunicationService, boolean startNetworkBroadcast) throws Exception {
+		try {
+			return startup(startHostDicovery, startCommunicationService, startNetworkBroadcast).get();
+		}
+		catch (InterruptedException e) {
+			Logger.e(e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Starts the services of this runtime without waiting for them.  See {@link NetworkDCQ#startup(boolean, boolean, boolean)}
+	 * @param startHostDicovery
+	 * 		Set to true if host discovery service is needed
+	 * @param startCommunicationService
+	 * 		Set to true if network communication service for receiving application-level information from other hosts is needed
+	 * @param startNetworkBroadcast
+	 * 		Set to true if network broadcast application-level information must be sent periodically to other hosts
+	 * @return
+	 * 		the pending startup, which reports the result and the time of every phase
+	 * @throws
+	 * 		Exception in case of misconfiguration
+	 */
+	public NetworkDCQStartup startup(boolean startHostDicovery, boolean startCommunicationService, boolean startNetworkBroadcast) throws Exception {
+
+		if (startCommunicationService && communication.getConsumer() == null)
+			throw new Exception ("Cannot start communication service without a consumer");
+		if (startNetworkBroadcast && communication.getProducer() == null)
+			throw new Exception ("Cannot start broadcast without a producer");
+
+		final NetworkDCQStartup startup = new NetworkDCQStartup(startCommunicationService, startHostDicovery, startNetworkBroadcast);
+		execute(new Runnable() {
+			public void run() {
+				long startNS = System.nanoTime();
+				boolean network = false;
+				try {
+					network = !HostDiscovery.NO_NETWORK_IP.equals(getThisHost().getHostIP());
+					if (!network)
+						Logger.w("Cannot start network services.  No network detected");
+				}
+				catch (Exception e) {
+					Logger.e(e.getMessage());
+				}
+				long elapsedNS = System.nanoTime() - startNS;
+				if (network) {
+					// Every phase must be registered before the first one ends
+					int phases = 0;
+					for (int phase = NetworkDCQStartup.PHASE_SERVICE; phase <= NetworkDCQStartup.PHASE_BROADCAST; phase++)
+						if (startup.isRequested(phase))
+							phases++;
+					startup.expect(phases);
+					// This host is announced once it accepts connections: peers do not retry refused ones
+					boolean chained = startup.isRequested(NetworkDCQStartup.PHASE_SERVICE) && startup.isRequested(NetworkDCQStartup.PHASE_DISCOVERY);
+					for (int phase = NetworkDCQStartup.PHASE_SERVICE; phase <= NetworkDCQStartup.PHASE_BROADCAST; phase++) {
+						if (!startup.isRequested(phase) || (chained && phase == NetworkDCQStartup.PHASE_DISCOVERY))
+							continue;
+						execute(new StartupPhase(startup, phase, chained && phase == NetworkDCQStartup.PHASE_SERVICE ? NetworkDCQStartup.PHASE_DISCOVERY : -1));
+					}
+				}
+				startup.phaseDone(NetworkDCQStartup.PHASE_RESOLVE, network, elapsedNS);
+			}
+		});
+		return startup;
+	}
+
+	/**
+	 * Starts one of the services, as part of a startup
+	 */
+	protected class StartupPhase implements Runnable {
+
+		/** Startup this phase belongs to */
+		protected NetworkDCQStartup startup;
+		/** A {@code NetworkDCQStartup.PHASE_} constant */
+		protected int phase;
+		/** Phase started once this one is done, or -1 */
+		protected int nextPhase;
+
+		public StartupPhase(NetworkDCQStartup startup, int phase, int nextPhase) {
+			this.startup = startup;
+			this.phase = phase;
+			this.nextPhase = nextPhase;
+		}
+
+		public void run() {
+			long startNS = System.nanoTime();
+			boolean ok = false;
+			try {
+				switch (phase) {
+					case NetworkDCQStartup.PHASE_SERVICE:
+						// Communication server
+						ok = communication.startService();
+						break;
+					case NetworkDCQStartup.PHASE_DISCOVERY:
+						// Discovery service
+						ok = discovery.startDiscovery();
+						break;
+					case NetworkDCQStartup.PHASE_BROADCAST:
+						// Communication client
+						ok = communication.startBroadcast();
+						break;
+				}
+			}
+			catch (Exception e) {
+				Logger.e(e.getMessage());
+			}
+			startup.phaseDone(phase, ok, System.nanoTime() - startNS);
+			if (nextPhase < 0)
+				return;
+			// A host which accepts no connections must not be announced
+			if (ok)
+				new StartupPhase(startup, nextPhase, -1).run();
+			else
+				startup.phaseDone(nextPhase, false, 0);
+		}
+	}
+
+	/**
+	 * Stops the services of this runtime.  Threads end normally
+	 */
+	public void shutdown() {
+		communication.stopBroadcast();
+		communication.stopService();
+		discovery.stopDiscovery();
+	}
+
+	/**
+	 * Runs a task (typically a service main loop) in the executor of this runtime
+	 * @param task the task
+	 */
+	public void execute(Runnable task) {
+		if (executor != null)
+			executor.execute(task);
+		else
+			getSharedExecutor().execute(task);
+	}
+
+	/**
+	 * Runs a consumer dispatcher task in the consumer executor of this runtime
+	 * @param task the task
+	 */
+	public void executeConsumer(Runnable task) {
+		if (consumerExecutor != null)
+			consumerExecutor.execute(task);
+		else
+			execute(task);
+	}
+
+	/**
+	 * @return the executor shared by every runtime without an executor of its own
+	 */
+	public static synchronized ExecutorService getSharedExecutor() {
+		if (sharedExecutor == null)
+			sharedExecutor = Executors.newCachedThreadPool();
+		return sharedExecutor;
+	}
+
+	/**
+	 * Removes a host from de remote hosts list
+	 * @param ip the host IP
+	 */
+	public void removeHost(String ip) {
+		otherHosts.remove(ip);
+	}
+
+	/**
+	 * Retrieves the local address sockets must be bound to
+	 * @return the IP of this host if {@code bindToHostIP} or {@code NetworkCommunication.BIND_TO_HOST_IP} are set, or null for every local address
+	 * @throws UnknownHostException if this host IP is not valid
+	 */
+	public InetAddress getBindAddress() throws UnknownHostException {
+		if (!bindToHostIP && !NetworkCommunication.BIND_TO_HOST_IP)
+			return null;
+		return InetAddress.getByName(getThisHost().getHostIP());
+	}
+
+	/**
+	 * Retrieves the local interface multicast groups must be joined on
+	 * @return the interface of the bind address (see {@link #getBindAddress()}), or null for the default interface
+	 * @throws IOException if this host IP is not valid, or its interface cannot be retrieved
+	 */
+	public NetworkInterface getBindInterface() throws IOException {
+		InetAddress address = getBindAddress();
+		return address != null ? NetworkInterface.getByInetAddress(address) : null;
+	}
+
+	/**
+	 * Default Getter
+	 * @return the network communication instance
+	 */
+	public NetworkCommunication getCommunication() {
+		return communication;
+	}
+
+	/**
+	 * Default Getter
+	 * @return the host discovery instance
+	 */
+	public HostDiscovery getDiscovery() {
+		return discovery;
+	}
+
+	/**
+	 * Default Getter
+	 * @return the QoS monitor instance
+	 */
+	public QoSMonitor getQoS() {
+		return qoSMonitor;
+	}
+
+	/**
+	 * Retrieves this host.  Unless set, it is the local host resolved once per process by {@link HostDiscovery#getThisHost()}
+	 * @return this host
+	 */
+	public synchronized Host getThisHost() {
+		if (thisHost == null)
+			thisHost = HostDiscovery.getThisHost();
+		return thisHost;
+	}
+
+	/**
+	 * Sets this host, in order to use a given local IP.  Must be set before starting the services
+	 * @param thisHost this host
+	 */
+	public synchronized void setThisHost(Host thisHost) {
+		this.thisHost = thisHost;
+	}
+
+	/**
+	 * Default Getter
+	 * @return the other hosts list. IP->Host details
+	 */
+	public IterateableConcurrentHashMap<String, Host> getOtherHosts() {
+		return otherHosts;
+	}
+
+	/**
+	 * Default Getter
+	 * @return the executor of this runtime, or null if the shared executor is used
+	 */
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Default Setter.  Must be set before starting the services
+	 * @param executor the executor of this runtime, or null for the shared executor
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Default Getter
+	 * @return the executor delivering the events to the consumer, or null if the executor of this runtime is used
+	 */
+	public Executor getConsumerExecutor() {
+		return consumerExecutor;
+	}
+
+	/**
+	 * Default Setter.  A single thread executor delivers every event in order, at the cost of parallelism
+	 * @param consumerExecutor the executor delivering the events to the consumer, or null for the executor of this runtime
+	 */
+	public void setConsumerExecutor(Executor consumerExecutor) {
+		this.consumerExecutor = consumerExecutor;
+	}
+
+	/**
+	 * Default Getter
+	 * @return TCP port for the communication services
+	 */
+	public int getTCPPort() {
+		return tcpPort;
+	}
+
+	/**
+	 * Default Setter.  Must be set before starting the services, and be the same for every host in the group
+	 * @param tcpPort TCP port for the communication services
+	 */
+	public void setTCPPort(int tcpPort) {
+		this.tcpPort = tcpPort;
+	}
+
+	/**
+	 * Default Getter
+	 * @return UDP port for discovery
+	 */
+	public int getDiscoveryPort() {
+		return discoveryPort;
+	}
+
+	/**
+	 * Default Setter.  Must be set before starting the services, and be the same for every host in the group
+	 * @param discoveryPort UDP port for discovery
+	 */
+	public void setDiscoveryPort(int discoveryPort) {
+		this.discoveryPort = discoveryPort;
+	}
+
+	/**
+	 * Default Getter
+	 * @return UDP group for discovery
+	 */
+	public String getDiscoveryGroup() {
+		return discoveryGroup;
+	}
+
+	/**
+	 * Default Setter.  Must be set before starting the services, and be the same for every host in the group
+	 * @param discoveryGroup UDP group for discovery
+	 */
+	public void setDiscoveryGroup(String discoveryGroup) {
+		this.discoveryGroup = discoveryGroup;
+	}
+
+	/**
+	 * Default Getter
+	 * @return UDP port for gossip discovery messages ({@code DISCOVERY_METHOD_GOSSIP})
+	 */
+	public int getGossipPort() {
+		return gossipPort;
+	}
+
+	/**
+	 * Default Setter.  Must be set before starting the services, and be the same for every host in the group
+	 * @param gossipPort UDP port for gossip discovery messages ({@code DISCOVERY_METHOD_GOSSIP})
+	 */
+	public void setGossipPort(int gossipPort) {
+		this.gossipPort = gossipPort;
+	}
+
+	/**
+	 * Default Getter
+	 * @return UDP port for local status snapshots ({@code COMMUNICATION_METHOD_UDP})
+	 */
+	public int getUDPDataPort() {
+		return udpDataPort;
+	}
+
+	/**
+	 * Default Setter.  Must be set before starting the services, and be the same for every host in the group
+	 * @param udpDataPort UDP port for local status snapshots ({@code COMMUNICATION_METHOD_UDP})
+	 */
+	public void setUDPDataPort(int udpDataPort) {
+		this.udpDataPort = udpDataPort;
+	}
+
+	/**
+	 * Default Getter
+	 * @return UDP port for local status snapshots ({@code COMMUNICATION_METHOD_MULTICAST})
+	 */
+	public int getMulticastDataPort() {
+		return multicastDataPort;
+	}
+
+	/**
+	 * Default Setter.  Must be set before starting the services, and be the same for every host in the group
+	 * @param multicastDataPort UDP port for local status snapshots ({@code COMMUNICATION_METHOD_MULTICAST})
+	 */
+	public void setMulticastDataPort(int multicastDataPort) {
+		this.multicastDataPort = multicastDataPort;
+	}
+
+	/**
+	 * Default Getter
+	 * @return UDP group for local status snapshots ({@code COMMUNICATION_METHOD_MULTICAST})
+	 */
+	public String getMulticastDataGroup() {
+		return multicastDataGroup;
+	}
+
+	/**
+	 * Default Setter.  Must be set before starting the services, and be the same for every host in the group
+	 * @param multicastDataGroup UDP group for local status snapshots ({@code COMMUNICATION_METHOD_MULTICAST})
+	 */
+	public void setMulticastDataGroup(String multicastDataGroup) {
+		this.multicastDataGroup = multicastDataGroup;
+	}
+
+	/**
+	 * Default Getter
+	 * @return true if sockets are bound to the IP of this host instead of every local address
+	 */
+	public boolean isBindToHostIP() {
+		return bindToHostIP;
+	}
+
+	/**
+	 * Default Setter.  Must be set before starting the services
+	 * @param bindToHostIP true if sockets must be bound to the IP of this host instead of every local address
+	 */
+	public void setBindToHostIP(boolean bindToHostIP) {
+		this.bindToHostIP = bindToHostIP;
+	}
+}
@@ -0,0 +1,182 @@
+package networkdcq;
+
+/**
+ * Pending result of {@link NetworkDCQRuntime#startup(boolean, boolean, boolean)}.  The local host is
+ * resolved first; then the communication service, the host discovery and the broadcast are brought
+ * up in parallel, except that the discovery waits for the service, so that this host is not announced
+ * before accepting connections (if the service fails, the discovery is not started and fails too).
+ * The elapsed time of every phase is kept, and logged once the startup is done.
+ */
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import networkdcq.util.Logger;
+
+public class NetworkDCQStartup implements Future<Boolean> {
+
+	/** Phase: local host resolution */
+	public static final int PHASE_RESOLVE = 0;
+	/** Phase: communication service (listener) */
+	public static final int PHASE_SERVICE = 1;
+	/** Phase: host discovery */
+	public static final int PHASE_DISCOVERY = 2;
+	/** Phase: communication broadcast */
+	public static final int PHASE_BROADCAST = 3;
+	/** Whole startup, from request to completion */
+	public static final int PHASE_TOTAL = 4;
+	/** Phase names, for the report */
+	protected static final String[] PHASE_NAMES = { "resolve", "service", "discovery", "broadcast", "total" };
+
+	/** Not requested phase */
+	protected static final int STATUS_SKIPPED = 0;
+	/** Pending or running phase */
+	protected static final int STATUS_PENDING = 1;
+	/** Succesful phase */
+	protected static final int STATUS_OK = 2;
+	/** Failed phase */
+	protected static final int STATUS_FAILED = 3;
+
+	/** Elapsed time of every phase (ns) */
+	protected long[] phaseNS = new long[PHASE_NAMES.length];
+	/** Status of every phase */
+	protected int[] phaseStatus = new int[PHASE_NAMES.length];
+	/** Request time (System.nanoTime()) */
+	protected long startNS;
+	/** Phases still running */
+	protected int pending;
+	/** Overall result */
+	protected volatile boolean success = false;
+	/** Released when every phase is done */
+	protected CountDownLatch done = new CountDownLatch(1);
+
+	/**
+	 * Creates the startup of the given phases
+	 * @param service true if the communication service will be started
+	 * @param discovery true if the host discovery will be started
+	 * @param broadcast true if the communication broadcast will be started
+	 */
+	protected NetworkDCQStartup(boolean service, boolean discovery, boolean broadcast) {
+		startNS = System.nanoTime();
+		phaseStatus[PHASE_RESOLVE] = STATUS_PENDING;
+		phaseStatus[PHASE_SERVICE] = service ? STATUS_PENDING : STATUS_SKIPPED;
+		phaseStatus[PHASE_DISCOVERY] = discovery ? STATUS_PENDING : STATUS_SKIPPED;
+		phaseStatus[PHASE_BROADCAST] = broadcast ? STATUS_PENDING : STATUS_SKIPPED;
+		phaseStatus[PHASE_TOTAL] = STATUS_PENDING;
+		pending = 1;
+	}
+
+	/**
+	 * @param phase a {@code PHASE_} constant
+	 * @return true if the phase was requested
+	 */
+	protected boolean isRequested(int phase) {
+		return phaseStatus[phase] != STATUS_SKIPPED;
+	}
+
+	/**
+	 * Registers the end of a phase, completing the startup after the last one
+	 * @param phase a {@code PHASE_} constant
+	 * @param ok true if the phase succeeded
+	 * @param elapsedNS elapsed time of the phase (ns)
+	 */
+	protected void phaseDone(int phase, boolean ok, long elapsedNS) {
+		synchronized (this) {
+			phaseNS[phase] = elapsedNS;
+			phaseStatus[phase] = ok ? STATUS_OK : STATUS_FAILED;
+			if (!ok)
+				Logger.e("Error starting " + PHASE_NAMES[phase]);
+			if (--pending > 0)
+				return;
+			boolean allOK = true;
+			for (int i = 0; i < PHASE_TOTAL; i++)
+				allOK &= phaseStatus[i] != STATUS_FAILED;
+			phaseNS[PHASE_TOTAL] = System.nanoTime() - startNS;
+			phaseStatus[PHASE_TOTAL] = allOK ? STATUS_OK : STATUS_FAILED;
+			success = allOK;
+		}
+		Logger.i("Startup " + this);
+		done.countDown();
+	}
+
+	/**
+	 * Adds phases to wait for, before they are started
+	 * @param phases amount of phases
+	 */
+	protected synchronized void expect(int phases) {
+		pending += phases;
+	}
+
+	/**
+	 * Retrieves the elapsed time of a phase
+	 * @param phase a {@code PHASE_} constant
+	 * @return elapsed time (ms), or -1 if the phase was not requested or is still running
+	 */
+	public synchronized double getPhaseTimeMS(int phase) {
+		if (phaseStatus[phase] != STATUS_OK && phaseStatus[phase] != STATUS_FAILED)
+			return -1;
+		return phaseNS[phase] / 1e6;
+	}
+
+	/**
+	 * @param phase a {@code PHASE_} constant
+	 * @return true if the phase was requested and failed
+	 */
+	public synchronized boolean isFailed(int phase) {
+		return phaseStatus[phase] == STATUS_FAILED;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		// Services are stopped through NetworkDCQRuntime.shutdown()
+		return false;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return false;
+	}
+
+	@Override
+	public boolean isDone() {
+		return done.getCount() == 0;
+	}
+
+	/**
+	 * Waits for the startup to complete
+	 * @return true if every requested phase succeeded
+	 */
+	@Override
+	public Boolean get() throws InterruptedException {
+		done.await();
+		return success;
+	}
+
+	/**
+	 * Waits for the startup to complete
+	 * @return true if every requested phase succeeded
+	 */
+	@Override
+	public Boolean get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+		if (!done.await(timeout, unit))
+			throw new TimeoutException("NetworkDCQ startup still running");
+		return success;
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuffer sb = new StringBuffer(phaseStatus[PHASE_TOTAL] == STATUS_OK ? "OK" : (phaseStatus[PHASE_TOTAL] == STATUS_FAILED ? "FAILED" : "RUNNING"));
+		for (int i = 0; i < PHASE_NAMES.length; i++) {
+			if (phaseStatus[i] == STATUS_SKIPPED)
+				continue;
+			sb.append(i == 0 ? " - " : ", ").append(PHASE_NAMES[i]).append(": ");
+			if (phaseStatus[i] == STATUS_PENDING)
+				sb.append("pending");
+			else
+				sb.append(String.format("%.1fms", phaseNS[i] / 1e6)).append(phaseStatus[i] == STATUS_FAILED ? " (failed)" : "");
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,246 @@
+package networkdcq.communication;
+
+/**
+ * Deflate compression of the frames of a single connection.  Every frame is compressed on its own
+ * (no stream state is shared), but with the most recent payloads of the connection as preset dictionary:
+ * consecutive local status snapshots are very similar, so a new snapshot is mostly encoded as references
+ * to the previous ones.  Sender and receiver append the same uncompressed payloads to their windows, in the
+ * same order, so both dictionaries are always equal.  An optional {@code PRESET_DICTIONARY} (the same on
+ * every host) seeds the windows, helping the first frames of every connection.
+ * <p>
+ * Compressed payload: inner frame kind (byte) + inner payload size (int) + zlib stream
+ */
+
+import java.io.IOException;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class CompressionCodec {
+
+	/** Deflate level.  Bandwidth, not CPU, is the scarce resource, but the fastest level already catches the repetitions between snapshots */
+	public static int COMPRESSION_LEVEL = Deflater.BEST_SPEED;
+	/** Max amount of recent payload bytes used as dictionary (bytes, 32K at most) */
+	public static int COMPRESSION_WINDOW = 8 * 1024;
+	/** Initial dictionary of every connection, e.g. sample payloads of the application.  Every host in the group must use the same one */
+	public static byte[] PRESET_DICTIONARY = null;
+	/** Size of the header of the compressed payload: inner frame kind (byte) + inner payload size (int) */
+	public static final int COMPRESSED_HEADER_SIZE = 5;
+
+	/** Compressor (sender side) */
+	protected Deflater deflater = null;
+	/** Decompressor (receiver side) */
+	protected Inflater inflater = null;
+	/** Checksum of the window, compared with the dictionary the sender used (receiver side) */
+	protected Adler32 adler = null;
+	/** Reusable output buffer */
+	protected byte[] buffer = new byte[1024];
+	/** Recent payloads, the latest at the end */
+	protected byte[] window = null;
+	/** Valid bytes in the window */
+	protected int windowLength = 0;
+	/** Kind of the last decompressed frame */
+	protected byte kind = MessageCodec.FRAME_MESSAGE;
+	/** Frames compressed or decompressed */
+	protected long frames = 0;
+	/** Frame bytes before compression */
+	protected long uncompressedBytes = 0;
+	/** Frame bytes after compression */
+	protected long compressedBytes = 0;
+
+	/**
+	 * Compresses a frame (sender side).  Frames which do not get smaller are returned as they are
+	 * @param message a framed message (see {@link MessageCodec#frame(byte, byte[])})
+	 * @return the compressed frame, or the same message
+	 */
+	public EncodedMessage compress(EncodedMessage message) {
+		byte[] frame = message.getBytes();
+		int payloadLength = frame.length - MessageCodec.FRAME_HEADER_SIZE;
+		if (deflater == null)
+			deflater = new Deflater(COMPRESSION_LEVEL);
+		deflater.reset();
+		if (getWindowLength() > 0)
+			deflater.setDictionary(window, 0, windowLength);
+		deflater.setInput(frame, MessageCodec.FRAME_HEADER_SIZE, payloadLength);
+		deflater.finish();
+		int length = 0;
+		while (!deflater.finished()) {
+			if (length == buffer.length)
+				buffer = grow(buffer, length);
+			length += deflater.deflate(buffer, length, buffer.length - length);
+			// Not worth it: the receiver does not update its window either
+			if (length + COMPRESSED_HEADER_SIZE >= payloadLength)
+				return message;
+		}
+		byte[] compressed = new byte[MessageCodec.FRAME_HEADER_SIZE + COMPRESSED_HEADER_SIZE + length];
+		MessageCodec.writeHeader(compressed, COMPRESSED_HEADER_SIZE + length, MessageCodec.FRAME_COMPRESSED);
+		compressed[MessageCodec.FRAME_HEADER_SIZE] = frame[4];
+		MessageCodec.writeInt(compressed, MessageCodec.FRAME_HEADER_SIZE + 1, payloadLength);
+		System.arraycopy(buffer, 0, compressed, MessageCodec.FRAME_HEADER_SIZE + COMPRESSED_HEADER_SIZE, length);
+		append(frame, MessageCodec.FRAME_HEADER_SIZE, payloadLength);
+		frames++;
+		uncompressedBytes += frame.length;
+		compressedBytes += compressed.length;
+		return new EncodedMessage(message.getData(), compressed);
+	}
+
+	/**
+	 * Decompresses the payload of a {@code FRAME_COMPRESSED} frame (receiver side).  The inner payload
+	 * is left in {@link #getBuffer()}, and its kind in {@link #getKind()}
+	 * @param payload compressed payload
+	 * @param length compressed payload size
+	 * @return inner payload size
+	 * @throws IOException if the payload is corrupt or was compressed with another dictionary
+	 */
+	public int decompress(byte[] payload, int length) throws IOException {
+		if (length < COMPRESSED_HEADER_SIZE)
+			throw new IOException("Invalid compressed frame");
+		byte innerKind = payload[0];
+		int innerLength = MessageCodec.readInt(payload, 1);
+		if (innerLength < 0 || innerLength > MessageCodec.MAX_FRAME_SIZE || innerKind < MessageCodec.FRAME_MESSAGE || innerKind > MessageCodec.FRAME_DELTA)
+			throw new IOException("Invalid compressed frame");
+		if (buffer.length < innerLength)
+			buffer = new byte[innerLength];
+		if (inflater == null)
+			inflater = new Inflater();
+		inflater.reset();
+		inflater.setInput(payload, COMPRESSED_HEADER_SIZE, length - COMPRESSED_HEADER_SIZE);
+		try {
+			int inflated = 0;
+			while (!inflater.finished()) {
+				int count = inflater.inflate(buffer, inflated, innerLength - inflated);
+				if (count > 0) {
+					inflated += count;
+					continue;
+				}
+				if (inflater.needsDictionary()) {
+					// The window must be the dictionary the sender used
+					if (getWindowLength() == 0 || inflater.getAdler() != adler())
+						throw new IOException("Compression dictionary mismatch");
+					inflater.setDictionary(window, 0, windowLength);
+				}
+				else if (!inflater.finished())
+					throw new IOException("Invalid compressed frame size");
+			}
+			if (inflated != innerLength)
+				throw new IOException("Invalid compressed frame size");
+		}
+		catch (DataFormatException e) {
+			throw new IOException("Corrupt compressed frame: " + e.getMessage());
+		}
+		append(buffer, 0, innerLength);
+		kind = innerKind;
+		frames++;
+		uncompressedBytes += MessageCodec.FRAME_HEADER_SIZE + innerLength;
+		compressedBytes += MessageCodec.FRAME_HEADER_SIZE + length;
+		return innerLength;
+	}
+
+	/**
+	 * @return valid window bytes, seeding the window with {@code PRESET_DICTIONARY} on first use
+	 */
+	protected int getWindowLength() {
+		if (window == null) {
+			window = new byte[Math.max(1, Math.min(COMPRESSION_WINDOW, 32 * 1024))];
+			if (PRESET_DICTIONARY != null)
+				append(PRESET_DICTIONARY, 0, PRESET_DICTIONARY.length);
+		}
+		return windowLength;
+	}
+
+	/**
+	 * Appends a payload to the window, discarding the oldest bytes
+	 * @param source payload
+	 * @param offset payload start
+	 * @param length payload size
+	 */
+	protected void append(byte[] source, int offset, int length) {
+		getWindowLength();
+		if (length >= window.length) {
+			System.arraycopy(source, offset + length - window.length, window, 0, window.length);
+			windowLength = window.length;
+			return;
+		}
+		int keep = Math.min(windowLength, window.length - length);
+		System.arraycopy(window, windowLength - keep, window, 0, keep);
+		System.arraycopy(source, offset, window, keep, length);
+		windowLength = keep + length;
+	}
+
+	/**
+	 * @return Adler-32 of the window, as checked by zlib for preset dictionaries
+	 */
+	protected int adler() {
+		if (adler == null)
+			adler = new Adler32();
+		adler.reset();
+		adler.update(window, 0, windowLength);
+		return (int)adler.getValue();
+	}
+
+	/**
+	 * Doubles a buffer
+	 * @param source current buffer
+	 * @param length valid bytes
+	 * @return the new buffer
+	 */
+	protected static byte[] grow(byte[] source, int length) {
+		byte[] grown = new byte[source.length * 2];
+		System.arraycopy(source, 0, grown, 0, length);
+		return grown;
+	}
+
+	/**
+	 * Releases the native resources of the codec
+	 */
+	public void close() {
+		if (deflater != null)
+			deflater.end();
+		if (inflater != null)
+			inflater.end();
+	}
+
+	/**
+	 * @return the last decompressed payload (see {@link #decompress(byte[], int)})
+	 */
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * @return kind of the last decompressed frame
+	 */
+	public byte getKind() {
+		return kind;
+	}
+
+	/**
+	 * @return amount of frames compressed or decompressed
+	 */
+	public long getFrames() {
+		return frames;
+	}
+
+	/**
+	 * @return size of those frames before compression (bytes)
+	 */
+	public long getUncompressedBytes() {
+		return uncompressedBytes;
+	}
+
+	/**
+	 * @return size of those frames after compression (bytes)
+	 */
+	public long getCompressedBytes() {
+		return compressedBytes;
+	}
+
+	/**
+	 * @return compression statistics
+	 */
+	public String toString() {
+		return String.format("frames: %d, bytes: %d -> %d (%.1f%%)", frames, uncompressedBytes, compressedBytes,
+				uncompressedBytes == 0 ? 100.0 : 100.0 * compressedBytes / uncompressedBytes);
+	}
+}
@@ -0,0 +1,176 @@
+package networkdcq.communication;
+
+/**
+ * Delta encoding of local status snapshots, based on the {@link NetworkSerializable} field layout.
+ * The sender encodes every snapshot as a keyframe (all fields) and, when possible, as a delta
+ * containing only the fields that changed since the previous snapshot.  Each connection writes
+ * the delta only if the previous snapshot was the last one it wrote, and the keyframe otherwise
+ * (see {@link DeltaEncodedMessage}), so the receiver base is always the last snapshot it received.
+ * <p>
+ * Keyframe payload: sequence (int) + full networkSerialize() representation<br>
+ * Delta payload: sequence (int) + base sequence (int) + field count (short) + changed fields bitmap
+ * + value of every changed field (UTF)
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import networkdcq.NetworkApplicationData;
+import networkdcq.util.Logger;
+import networkdcq.util.NetworkSerializable;
+
+public class DeltaCodec {
+
+	/** Max consecutive deltas.  Afterwards a keyframe is sent to every host */
+	public static int KEYFRAME_INTERVAL = 100;
+
+	/** Sequence of the last encoded/decoded snapshot */
+	protected int sequence = 0;
+	/** Fields of the last encoded/decoded snapshot */
+	protected String[] lastFields = null;
+	/** Deltas encoded since the last forced keyframe */
+	protected int deltasSinceKeyframe = 0;
+	/** Last encoded snapshot (sender side) */
+	protected DeltaEncodedMessage lastMessage = null;
+
+	/**
+	 * Encodes a local status snapshot (sender side)
+	 * @param data snapshot, which must implement {@link NetworkSerializable}
+	 * @return the keyframe and delta frames of the snapshot
+	 * @throws IOException in case of serialization error
+	 */
+	public DeltaEncodedMessage encode(NetworkApplicationData data) throws IOException {
+		return encode(data, false);
+	}
+
+	/**
+	 * Encodes a local status snapshot (sender side)
+	 * @param data snapshot, which must implement {@link NetworkSerializable}
+	 * @param reuseUnchanged if true, a snapshot equal to the previous one is not encoded again: the previous
+	 * encoding, with the same sequence, is returned instead (hosts already holding it get the keyframe)
+	 * @return the keyframe and delta frames of the snapshot
+	 * @throws IOException in case of serialization error
+	 */
+	public synchronized DeltaEncodedMessage encode(NetworkApplicationData data, boolean reuseUnchanged) throws IOException {
+		String serialized = ((NetworkSerializable)data).networkSerialize();
+		String[] fields = split(serialized);
+		if (reuseUnchanged && lastMessage != null && Arrays.equals(fields, lastFields))
+			return lastMessage;
+		int baseSequence = sequence;
+		sequence++;
+
+		// Keyframe
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(bytes);
+		output.writeInt(sequence);
+		output.write(serialized.getBytes());
+		EncodedMessage keyframe = new EncodedMessage(data, MessageCodec.frame(MessageCodec.FRAME_KEYFRAME, bytes.toByteArray()));
+
+		// Delta (only if the layout did not change and no keyframe is due)
+		EncodedMessage delta = null;
+		if (lastFields != null && lastFields.length == fields.length && deltasSinceKeyframe < KEYFRAME_INTERVAL) {
+			try {
+				delta = new EncodedMessage(data, MessageCodec.frame(MessageCodec.FRAME_DELTA, encodeDelta(baseSequence, fields)));
+				deltasSinceKeyframe++;
+			}
+			catch (IOException e) {
+				// Fields too large for a delta, keyframe only
+				Logger.w(e.getMessage());
+			}
+		}
+		if (delta == null)
+			deltasSinceKeyframe = 0;
+		lastFields = fields;
+		lastMessage = new DeltaEncodedMessage(data, keyframe, delta, sequence, baseSequence);
+		return lastMessage;
+	}
+
+	/**
+	 * Creates the delta payload for the current sequence
+	 * @param baseSequence sequence of the previous snapshot
+	 * @param fields fields of the new snapshot
+	 * @return the delta payload
+	 * @throws IOException if a field cannot be encoded
+	 */
+	protected byte[] encodeDelta(int baseSequence, String[] fields) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(bytes);
+		output.writeInt(sequence);
+		output.writeInt(baseSequence);
+		output.writeShort(fields.length);
+		byte[] bitmap = new byte[(fields.length + 7) / 8];
+		for (int i = 0; i < fields.length; i++)
+			if (!fields[i].equals(lastFields[i]))
+				bitmap[i / 8] |= 1 << (i % 8);
+		output.write(bitmap);
+		for (int i = 0; i < fields.length; i++)
+			if ((bitmap[i / 8] & (1 << (i % 8))) != 0)
+				output.writeUTF(fields[i]);
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decodes a keyframe or delta payload (receiver side)
+	 * @param serializableData the communication serializable data
+	 * @param kind {@code MessageCodec.FRAME_KEYFRAME} or {@code MessageCodec.FRAME_DELTA}
+	 * @param buffer array containing the payload
+	 * @param length payload size
+	 * @return the reconstructed snapshot, or null if the delta base is not available
+	 * @throws IOException in case of stream error
+	 */
+	public NetworkApplicationData decode(NetworkSerializable serializableData, byte kind, byte[] buffer, int length) throws IOException {
+		DataInputStream input = new DataInputStream(new ByteArrayInputStream(buffer, 0, length));
+		int newSequence = input.readInt();
+		String[] fields;
+		if (kind == MessageCodec.FRAME_KEYFRAME) {
+			fields = split(new String(buffer, 4, length - 4));
+		}
+		else {
+			int baseSequence = input.readInt();
+			int fieldCount = input.readShort();
+			if (lastFields == null || baseSequence != sequence || fieldCount != lastFields.length) {
+				Logger.w("Delta base not available: " + baseSequence);
+				return null;
+			}
+			byte[] bitmap = new byte[(fieldCount + 7) / 8];
+			input.readFully(bitmap);
+			fields = lastFields.clone();
+			for (int i = 0; i < fieldCount; i++)
+				if ((bitmap[i / 8] & (1 << (i % 8))) != 0)
+					fields[i] = input.readUTF();
+		}
+		sequence = newSequence;
+		lastFields = fields;
+		return (NetworkApplicationData)serializableData.networkDeserialize(join(fields));
+	}
+
+	/**
+	 * Splits a networkSerialize() representation into its fields
+	 * @param serialized the representation, with or without the end-of-variables flag
+	 * @return the fields
+	 */
+	protected static String[] split(String serialized) {
+		if (serialized.length() > 0 && serialized.charAt(serialized.length() - 1) == NetworkSerializable.VARIABLE_END_OF_VARIABLES)
+			serialized = serialized.substring(0, serialized.length() - 1);
+		return serialized.split("" + NetworkSerializable.VARIABLE_MEMBER_SEPARATOR, -1);
+	}
+
+	/**
+	 * Joins the fields into a networkDeserialize() representation
+	 * @param fields the fields
+	 * @return the representation
+	 */
+	protected static String join(String[] fields) {
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < fields.length; i++) {
+			if (i > 0)
+				sb.append(NetworkSerializable.VARIABLE_MEMBER_SEPARATOR);
+			sb.append(fields[i]);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,83 @@
+package networkdcq.communication;
+
+/**
+ * A local status snapshot encoded by {@link DeltaCodec}: the keyframe (which is the message
+ * written by default) and, optionally, the delta against the previous snapshot
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import networkdcq.NetworkApplicationData;
+
+public class DeltaEncodedMessage extends EncodedMessage {
+
+	/** Keyframe encoding */
+	protected final EncodedMessage keyframe;
+	/** Delta encoding, or null if a keyframe must be sent */
+	protected final EncodedMessage delta;
+	/** Snapshot sequence */
+	protected final int sequence;
+	/** Sequence of the snapshot the delta is based on */
+	protected final int baseSequence;
+
+	/**
+	 * Constructor
+	 * @param data original message
+	 * @param keyframe keyframe encoding
+	 * @param delta delta encoding, or null if a keyframe must be sent
+	 * @param sequence snapshot sequence
+	 * @param baseSequence sequence of the snapshot the delta is based on
+	 */
+	public DeltaEncodedMessage(NetworkApplicationData data, EncodedMessage keyframe, EncodedMessage delta, int sequence, int baseSequence) {
+		super(data, new byte[0]);
+		this.keyframe = keyframe;
+		this.delta = delta;
+		this.sequence = sequence;
+		this.baseSequence = baseSequence;
+	}
+
+	/**
+	 * Selects the encoding to be written to a connection
+	 * @param lastWrittenSequence sequence of the last snapshot written to the connection
+	 * @return the delta if the connection received its base snapshot, the keyframe otherwise
+	 */
+	public EncodedMessage forConnection(int lastWrittenSequence) {
+		if (delta != null && lastWrittenSequence == baseSequence)
+			return delta;
+		return keyframe;
+	}
+
+	/**
+	 * Fingerprint of the keyframe, omitting the sequence
+	 */
+	@Override
+	public long fingerprint() {
+		byte[] bytes = keyframe.getBytes();
+		return fingerprint(bytes, MessageCodec.FRAME_HEADER_SIZE + 4, bytes.length - MessageCodec.FRAME_HEADER_SIZE - 4);
+	}
+
+	@Override
+	public int size() {
+		return keyframe.size();
+	}
+
+	@Override
+	public ByteBuffer asBuffer() {
+		return keyframe.asBuffer();
+	}
+
+	@Override
+	public void writeTo(OutputStream output) throws IOException {
+		keyframe.writeTo(output);
+	}
+
+	/**
+	 * Default Getter
+	 * @return the snapshot sequence
+	 */
+	public int getSequence() {
+		return sequence;
+	}
+}
@@ -0,0 +1,93 @@
+package networkdcq.communication;
+
+/**
+ * A message already encoded in the wire format of a given connection type, so that the
+ * same bytes can be handed to every peer connection without serializing the message again.
+ * Instances are immutable.
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import networkdcq.NetworkApplicationData;
+
+public class EncodedMessage {
+
+	/** Original message */
+	protected final NetworkApplicationData data;
+	/** Encoded message, ready to be written (never modified) */
+	private final byte[] bytes;
+
+	/**
+	 * Constructor
+	 * @param data original message
+	 * @param bytes encoded message.  Must not be modified afterwards
+	 */
+	public EncodedMessage(NetworkApplicationData data, byte[] bytes) {
+		this.data = data;
+		this.bytes = bytes;
+	}
+
+	/**
+	 * Default Getter
+	 * @return the original message
+	 */
+	public NetworkApplicationData getData() {
+		return data;
+	}
+
+	/**
+	 * @return encoded size in bytes
+	 */
+	public int size() {
+		return bytes.length;
+	}
+
+	/**
+	 * @return the encoded bytes themselves, for the codecs of this package.  Must not be modified
+	 */
+	byte[] getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return fingerprint of the encoded bytes (64 bit FNV-1a), for detecting unchanged snapshots
+	 */
+	public long fingerprint() {
+		return fingerprint(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Computes the fingerprint of encoded bytes (64 bit FNV-1a)
+	 * @param bytes the encoded bytes
+	 * @param offset first byte
+	 * @param length amount of bytes
+	 * @return the fingerprint
+	 */
+	protected static long fingerprint(byte[] bytes, int offset, int length) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = offset; i < offset + length; i++) {
+			hash ^= bytes[i] & 0xFF;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * @return a new read-only view of the encoded bytes, with its own position
+	 */
+	public ByteBuffer asBuffer() {
+		return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+	}
+
+	/**
+	 * Writes the encoded bytes to a stream
+	 * @param output target stream
+	 * @throws IOException in case of socket error
+	 */
+	public void writeTo(OutputStream output) throws IOException {
+		output.write(bytes);
+		output.flush();
+	}
+}
@@ -0,0 +1,125 @@
+package networkdcq.communication;
+
+/**
+ * Encodes and decodes NetworkApplicationData messages to/from byte arrays, and defines the frame
+ * layout used by the framed transports: a fixed size header (payload length + frame kind) followed
+ * by the payload itself.  The payload is the native Java serialization of the message, or its
+ * {@link NetworkSerializable#networkSerialize()} representation when multi-platform exchange is used.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+
+import networkdcq.NetworkApplicationData;
+import networkdcq.util.NetworkSerializable;
+
+public class MessageCodec {
+
+	/** Frame header size: payload length (int) + frame kind (byte) */
+	public static final int FRAME_HEADER_SIZE = 5;
+	/** Frame kind: a single encoded message */
+	public static final byte FRAME_MESSAGE = 0;
+	/** Frame kind: a complete local status snapshot (see {@link DeltaCodec}) */
+	public static final byte FRAME_KEYFRAME = 1;
+	/** Frame kind: the changes of a local status snapshot since the previous one (see {@link DeltaCodec}) */
+	public static final byte FRAME_DELTA = 2;
+	/** Frame kind: any of the previous kinds, compressed (see {@link CompressionCodec}) */
+	public static final byte FRAME_COMPRESSED = 3;
+	/** Max accepted payload size (bytes).  Larger frames are considered a stream error */
+	public static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+	/**
+	 * Encodes a message according to the configured serialization
+	 * @param serializableData the communication serializable data (null for native serialization)
+	 * @param data message to encode
+	 * @return the encoded payload
+	 * @throws IOException in case of serialization error
+	 */
+	public static byte[] encode(NetworkSerializable serializableData, NetworkApplicationData data) throws IOException {
+		// Native serialization?
+		if (serializableData == null) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream output = NativeCodec.newOutputStream(bytes);
+			output.writeObject(data);
+			output.close();
+			return bytes.toByteArray();
+		}
+		// Multi-platform serialization
+		return ((NetworkSerializable)data).networkSerialize().getBytes();
+	}
+
+	/**
+	 * Decodes a message according to the configured serialization
+	 * @param serializableData the communication serializable data (null for native serialization)
+	 * @param buffer array containing the payload
+	 * @param offset payload start position
+	 * @param length payload size
+	 * @return the decoded message
+	 * @throws IOException in case of deserialization error
+	 */
+	public static NetworkApplicationData decode(NetworkSerializable serializableData, byte[] buffer, int offset, int length) throws IOException {
+		try {
+			// Native serialization?
+			if (serializableData == null)
+				return (NetworkApplicationData)NativeCodec.newInputStream(new ByteArrayInputStream(buffer, offset, length)).readObject();
+			// Multi-platform serialization, omitting the end-of-variables flag (if present)
+			if (length > 0 && buffer[offset + length - 1] == NetworkSerializable.VARIABLE_END_OF_VARIABLES)
+				length--;
+			return (NetworkApplicationData)serializableData.networkDeserialize(new String(buffer, offset, length));
+		}
+		catch (ClassNotFoundException e) {
+			throw new IOException("Unknown message class: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Creates a complete frame (header + payload) in a single array
+	 * @param kind frame kind
+	 * @param payload encoded payload
+	 * @return the frame, ready to be written
+	 */
+	public static byte[] frame(byte kind, byte[] payload) {
+		ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + payload.length);
+		frame.putInt(payload.length);
+		frame.put(kind);
+		frame.put(payload);
+		return frame.array();
+	}
+
+	/**
+	 * Writes a frame header at the beginning of an array
+	 * @param frame destination, at least {@code FRAME_HEADER_SIZE} bytes
+	 * @param length payload size
+	 * @param kind frame kind
+	 */
+	public static void writeHeader(byte[] frame, int length, byte kind) {
+		writeInt(frame, 0, length);
+		frame[4] = kind;
+	}
+
+	/**
+	 * Writes a big endian int
+	 * @param buffer destination
+	 * @param offset position of the first byte
+	 * @param value the value
+	 */
+	public static void writeInt(byte[] buffer, int offset, int value) {
+		buffer[offset] = (byte)(value >>> 24);
+		buffer[offset + 1] = (byte)(value >>> 16);
+		buffer[offset + 2] = (byte)(value >>> 8);
+		buffer[offset + 3] = (byte)value;
+	}
+
+	/**
+	 * Reads a big endian int
+	 * @param buffer source
+	 * @param offset position of the first byte
+	 * @return the value
+	 */
+	public static int readInt(byte[] buffer, int offset) {
+		return ((buffer[offset] & 0xFF) << 24) | ((buffer[offset + 1] & 0xFF) << 16) | ((buffer[offset + 2] & 0xFF) << 8) | (buffer[offset + 3] & 0xFF);
+	}
+}
@@ -0,0 +1,71 @@
+package networkdcq.communication;
+
+/**
+ * Network communication which sends each local status snapshot once to a multicast group,
+ * so that the sender cost does not depend on the amount of hosts.  Every host joins the
+ * group for receiving the snapshots.  As in {@link UDPCommunication}, other messages
+ * keep using TCP connections.
+ */
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+
+import networkdcq.Host;
+import networkdcq.util.IterateableConcurrentHashMap;
+
+public class MulticastCommunication extends UDPCommunication {
+
+	/** UDP Port for local status snapshots (default, see {@code NetworkDCQRuntime.setMulticastDataPort()}) */
+	public static final int MULTICAST_DATA_PORT = 9996;
+	/** UDP Group for local status snapshots (default, see {@code NetworkDCQRuntime.setMulticastDataGroup()}; discovery uses 230.0.0.1) */
+	public static final String MULTICAST_DATA_GROUP = "230.0.0.2";
+
+	/** Snapshots group */
+	protected InetAddress group = null;
+
+	/**
+	 * Creates the socket for receiving snapshots, joined to the group on the interface of the bind address.
+	 * Unlike {@link UDPCommunication}, the socket is not bound to the host IP, as it would not receive group datagrams
+	 * @return the socket
+	 * @throws IOException in case of socket error
+	 */
+	@Override
+	protected DatagramSocket createDataListenerSocket() throws IOException {
+		MulticastSocket socket = new MulticastSocket(getRuntime().getMulticastDataPort());
+		socket.joinGroup(new InetSocketAddress(getGroup(), getRuntime().getMulticastDataPort()), getRuntime().getBindInterface());
+		return socket;
+	}
+
+	/**
+	 * Sends the prepared datagram once to the group
+	 * @return amount of hosts reached by the datagram
+	 * @throws IOException in case of socket error
+	 */
+	@Override
+	protected int sendDatagram() throws IOException {
+		dataPacket.setAddress(getGroup());
+		dataPacket.setPort(getRuntime().getMulticastDataPort());
+		dataSocket.send(dataPacket);
+		int reached = 0;
+		IterateableConcurrentHashMap.Snapshot<String, Host> hosts = getRuntime().getOtherHosts().snapshot();
+		for (int i=0; i<hosts.size(); i++) {
+			Host host = hosts.valueAt(i);
+			if (host!=null && host.isOnLine())
+				reached++;
+		}
+		return reached;
+	}
+
+	/**
+	 * @return the snapshots group address
+	 * @throws IOException if the address cannot be resolved
+	 */
+	protected InetAddress getGroup() throws IOException {
+		if (group == null)
+			group = InetAddress.getByName(getRuntime().getMulticastDataGroup());
+		return group;
+	}
+}
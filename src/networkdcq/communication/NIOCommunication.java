@@ -0,0 +1,295 @@
+package networkdcq.communication;
+
+/**
+ * Network communication over non-blocking TCP channels.  Unlike {@link TCPCommunication}, which
+ * creates a reader thread per connection, every inbound and outbound connection is served by a
+ * single {@link NIOReactor} thread, so the amount of threads remains constant as hosts join the group.
+ * Messages are exchanged as {@link MessageCodec} frames, hence every host in the group must use
+ * this communication method.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import networkdcq.Host;
+import networkdcq.NetworkApplicationData;
+import networkdcq.qos.QoSMonitorTestMessage;
+import networkdcq.util.IterateableConcurrentHashMap;
+import networkdcq.util.FixedRateTicker;
+import networkdcq.util.Logger;
+
+public class NIOCommunication extends NetworkCommunication implements Runnable {
+
+	/** Max time to wait for an outbound connection to be established (ms) */
+	public static int CONNECT_TIMEOUT_MS = 5000;
+
+	/** Selector loop for every connection */
+	protected NIOReactor reactor = null;
+	/** Outbound connections: Target Host IP - NIOConnection */
+	protected IterateableConcurrentHashMap<String, NIOConnection> connectionPool = new IterateableConcurrentHashMap<String, NIOConnection>();
+	/** Communication broadcast is running */
+	protected volatile boolean broadcastRunning = false;
+
+	@Override
+	public boolean startService() {
+		try {
+			// Accept inbound connections in the (single) reactor thread
+			startReactor(true);
+			return true;
+		}
+		catch (Exception e) {
+			Logger.e(e.getMessage());
+			return false;
+		}
+	}
+
+	@Override
+	public boolean startBroadcast() {
+		try {
+			// Create the client for broadcasting
+			broadcastRunning = true;
+			getRuntime().execute(this);
+			return true;
+		}
+		catch (Exception e) {
+			Logger.e(e.getMessage());
+			return false;
+		}
+	}
+
+	@Override
+	public boolean stopService() {
+		synchronized (this) {
+			if (reactor == null)
+				return false;
+			reactor.stop();
+			reactor = null;
+			connectionPool.clear();
+			return true;
+		}
+	}
+
+	@Override
+	public boolean stopBroadcast() {
+		broadcastRunning = false;
+		return true;
+	}
+
+	/**
+	 * Retrieves a connection from the pool, for example in order to tune its batching
+	 * @param hostIP host IP
+	 * @return the connection or null if there is no connection for the host
+	 */
+	public NIOConnection getConnection(String hostIP) {
+		return connectionPool.get(hostIP);
+	}
+
+	@Override
+	public void dropConnection(String ip) {
+		NIOConnection connection = connectionPool.get(ip);
+		if (connection != null && connectionPool.remove(ip, connection))
+			connection.close();
+	}
+
+	/**
+	 * Starts the reactor thread if it is not running yet
+	 * @param listen true if inbound connections must be accepted
+	 * @throws Exception if the reactor could not be started
+	 */
+	protected void startReactor(boolean listen) throws Exception {
+		synchronized (this) {
+			if (reactor != null) {
+				if (listen && reactor.serverChannel == null)
+					throw new Exception("Communication already started without listening for connections");
+				return;
+			}
+			NIOReactor newReactor = new NIOReactor(this);
+			if (listen)
+				newReactor.listen(getRuntime().getTCPPort());
+			newReactor.running = true;
+			getRuntime().execute(newReactor);
+			reactor = newReactor;
+		}
+	}
+
+	@Override
+	public boolean connectToServerHost(Host target) {
+		NIOConnection connection = connectionPool.get(target.getHostIP());
+		if (connection != null && !connection.closed)
+			return connection.isConnected() || connection.waitConnected(CONNECT_TIMEOUT_MS);
+		try {
+			// Outbound connections are served by the reactor too
+			startReactor(false);
+			Logger.i("Connecting to:" + target.getHostIP());
+			connection = reactor.connect(target.getHostIP(), getRuntime().getTCPPort());
+			connectionPool.put(target.getHostIP(), connection);
+			getRuntime().getOtherHosts().put(target.getHostIP(), target);
+			return connection.waitConnected(CONNECT_TIMEOUT_MS);
+		}
+		catch (Exception e) {
+			Logger.e(e.getMessage());
+			return false;
+		}
+	}
+
+	@Override
+	public void sendMessage(Host targetHost, NetworkApplicationData data) {
+		// dont send nulls
+		if (data==null)
+			return;
+		try {
+			sendMessage(targetHost, encode(data));
+		}
+		catch (Exception e) {
+			Logger.w("Exception encoding object:" + e.getMessage());
+		}
+	}
+
+	/**
+	 * Sends an already encoded message to a target
+	 * @param targetHost destination host
+	 * @param message message content, encoded by {@link #encode(NetworkApplicationData)}
+	 */
+	public void sendMessage(Host targetHost, EncodedMessage message) {
+		// retrieve host IP
+		String targetIP = targetHost.getHostIP();
+		if (targetIP==null) {
+			Logger.w("Cannot send!  targetHost IP is null");
+			return;
+		}
+		// get connection from pool
+		NIOConnection connection = connectionPool.get(targetIP);
+		if (connection==null) {
+			Logger.e("Client is null");
+			return;
+		}
+		if (!connection.isConnected()) {
+			Logger.w("Client not connected!");
+			return;
+		}
+		// the service may be stopped concurrently
+		NIOReactor current = reactor;
+		if (current==null) {
+			Logger.w("Communication service stopped");
+			return;
+		}
+		// every connection gets its own view of the same bytes
+		current.write(connection, new ByteBuffer[] { message.asBuffer() });
+	}
+
+	@Override
+	public void sendMessageToAllHosts(NetworkApplicationData data) {
+		// dont send nulls
+		if (data==null)
+			return;
+		sendMessageToAllHosts(data, null);
+	}
+
+	/**
+	 * Sends a single data message to all known hosts
+	 * @param data message content
+	 * @param message the message already encoded, or null for encoding it only once, and only if there is at least one target
+	 */
+	protected void sendMessageToAllHosts(NetworkApplicationData data, EncodedMessage message) {
+		int sent = 0;
+		IterateableConcurrentHashMap<String, Host> otherHosts = getRuntime().getOtherHosts();
+		IterateableConcurrentHashMap.Snapshot<String, NIOConnection> connections = connectionPool.snapshot();
+		for (int i=0; i<connections.size(); i++) {
+			Host host = otherHosts.get(connections.keyAt(i));
+			if (host!=null && host.isOnLine()) {
+				try {
+					if (message==null)
+						message = encode(data);
+				}
+				catch (Exception e) {
+					Logger.w("Exception encoding object:" + e.getMessage());
+					return;
+				}
+				sendMessage(host, message);
+				sent++;
+			}
+		}
+		broadcastSent(sent);
+	}
+
+	/**
+	 * Encodes a message as a complete frame
+	 * @param data message to encode
+	 * @return the encoded message
+	 * @throws IOException in case of serialization error
+	 */
+	protected EncodedMessage encode(NetworkApplicationData data) throws IOException {
+		return new EncodedMessage(data, MessageCodec.frame(MessageCodec.FRAME_MESSAGE, MessageCodec.encode(getSerializableData(), data)));
+	}
+
+	@Override
+	protected EncodedMessage encodeBroadcast(NetworkApplicationData data) throws IOException {
+		return encode(data);
+	}
+
+	/**
+	 * Notifies a message received by the reactor
+	 * @param data received message
+	 */
+	protected void processMessage(NetworkApplicationData data) {
+		if (data == null)
+			return;
+
+		// Is this a QoS-related message?
+		if (data instanceof QoSMonitorTestMessage) {
+			// Return object or calculate elapsed loop time
+			if (((QoSMonitorTestMessage)data).state == QoSMonitorTestMessage.STATE_FROM_SOURCE) {
+				((QoSMonitorTestMessage)data).state = QoSMonitorTestMessage.STATE_TO_SOURCE;
+				sendMessage(data.getSourceHost(), data);
+			}
+			else {
+				// Notify QoS
+				getRuntime().getQoS().testMessageReturned();
+			}
+			return;
+		}
+
+		// Update data to be consumed
+		getDispatcher().newData(data);
+	}
+
+	/**
+	 * Closes a failed connection, telling the app that the connection with the host is lost
+	 * @param connection the failed connection
+	 */
+	protected void connectionLost(NIOConnection connection) {
+		// Already closed: lost before, or dropped on purpose
+		if (!connection.close())
+			return;
+		if (connectionPool.get(connection.host) == connection)
+			connectionPool.remove(connection.host);
+		getDispatcher().byeHost(new Host(connection.host, false));
+		getRuntime().removeHost(connection.host);
+	}
+
+	/**
+	 * Sends a local status snapshot, already encoded by {@link #produceBroadcast(IterateableConcurrentHashMap.Snapshot)}, to all known hosts
+	 * @param message the encoded snapshot, or null if there is nothing to send
+	 */
+	protected void sendBroadcast(EncodedMessage message) {
+		if (message!=null)
+			sendMessageToAllHosts(message.getData(), message);
+	}
+
+	/**
+	 * In charge of sending local status to the other hosts periodically
+	 */
+	public void run() {
+		FixedRateTicker ticker = startBroadcastTicker();
+		while (broadcastRunning) {
+			try {
+				ticker.awaitTick();
+			}
+			catch (Exception e) {
+				Logger.w(e.getMessage());
+			}
+			if (broadcastRunning)
+				sendBroadcast(produceBroadcast(connectionPool.snapshot()));
+		}
+	}
+}
@@ -0,0 +1,238 @@
+package networkdcq.communication;
+
+/**
+ * A single non-blocking peer connection handled by {@link NIOReactor}.  Keeps the
+ * partially received inbound frame and the outbound frames pending to be written.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+import networkdcq.NetworkApplicationData;
+import networkdcq.util.NetworkSerializable;
+import networkdcq.util.Logger;
+
+public class NIOConnection {
+
+	/** Initial inbound buffer size (bytes).  Grows if larger frames are received */
+	public static final int READ_BUFFER_SIZE = 8 * 1024;
+
+	/** Peer channel */
+	protected SocketChannel channel;
+	/** Peer Host IP */
+	protected String host;
+	/** Selector registration */
+	protected SelectionKey key = null;
+	/** Is the connection established? */
+	protected boolean connected = false;
+	/** Was the connection closed? */
+	protected boolean closed = false;
+	/** Is this connection already queued for write interest in the reactor? */
+	protected boolean writePending = false;
+	/** Inbound data (write mode between reads) */
+	protected ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+	/** Outbound frames pending to be written */
+	protected LinkedList<ByteBuffer[]> writeQueue = new LinkedList<ByteBuffer[]>();
+	/** Max size of the frames gathered into a single write (bytes, see {@code NetworkCommunication.BATCH_MAX_BYTES}) */
+	protected volatile int batchMaxBytes = NetworkCommunication.BATCH_MAX_BYTES;
+	/** Buffers of the frames gathered into the current write */
+	protected ByteBuffer[] gatherBuffers = new ByteBuffer[16];
+	/** Writes to the channel (each one carrying one or more frames) */
+	protected long writtenBatches = 0;
+	/** Frames written to the channel */
+	protected long writtenFrames = 0;
+
+	/**
+	 * Constructor
+	 * @param channel peer channel
+	 * @param host peer IP
+	 */
+	public NIOConnection(SocketChannel channel, String host) {
+		this.channel = channel;
+		this.host = host;
+	}
+
+	/**
+	 * Queues a frame for writing
+	 * @param frame header and payload buffers
+	 * @return true if the reactor must be notified about the pending write, false if it was already notified
+	 */
+	protected synchronized boolean enqueue(ByteBuffer[] frame) {
+		writeQueue.add(frame);
+		if (writePending)
+			return false;
+		writePending = true;
+		return true;
+	}
+
+	/**
+	 * Writes as many pending frames as the channel accepts
+	 * @return true if every pending frame was written, false otherwise
+	 * @throws IOException in case of socket error
+	 */
+	protected synchronized boolean flush() throws IOException {
+		writePending = false;
+		while (!writeQueue.isEmpty()) {
+			// Gather the pending frames, up to the batch size, into a single write
+			int count = 0;
+			int size = 0;
+			for (ByteBuffer[] frame : writeQueue) {
+				if (count > 0 && size >= batchMaxBytes)
+					break;
+				if (count + frame.length > gatherBuffers.length) {
+					ByteBuffer[] larger = new ByteBuffer[Math.max(gatherBuffers.length * 2, count + frame.length)];
+					System.arraycopy(gatherBuffers, 0, larger, 0, count);
+					gatherBuffers = larger;
+				}
+				for (ByteBuffer buffer : frame) {
+					gatherBuffers[count++] = buffer;
+					size += buffer.remaining();
+				}
+			}
+			channel.write(gatherBuffers, 0, count);
+			writtenBatches++;
+			for (int i = 0; i < count; i++)
+				gatherBuffers[i] = null;
+			// Remove the frames written completely
+			while (!writeQueue.isEmpty()) {
+				ByteBuffer[] frame = writeQueue.getFirst();
+				if (frame[frame.length-1].hasRemaining())
+					return false;
+				writeQueue.removeFirst();
+				writtenFrames++;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Default Getter
+	 * @return max size of the frames gathered into a single write (bytes)
+	 */
+	public int getBatchMaxBytes() {
+		return batchMaxBytes;
+	}
+
+	/**
+	 * Default Setter.  Frames are written as soon as the reactor can, so only the frames queued since the
+	 * last write are gathered: there is no batch delay in NIO connections
+	 * @param batchMaxBytes max size of the frames gathered into a single write (bytes).  1 disables batching
+	 */
+	public void setBatchMaxBytes(int batchMaxBytes) {
+		this.batchMaxBytes = batchMaxBytes;
+	}
+
+	/**
+	 * @return amount of writes to the channel, each one carrying one or more frames
+	 */
+	public synchronized long getWrittenBatches() {
+		return writtenBatches;
+	}
+
+	/**
+	 * @return amount of frames written to the channel
+	 */
+	public synchronized long getWrittenFrames() {
+		return writtenFrames;
+	}
+
+	/**
+	 * Reads the available data from the channel, decoding every complete frame
+	 * @param serializableData the communication serializable data (null for native serialization)
+	 * @param messages list where the decoded messages are added
+	 * @throws IOException in case of socket or stream error
+	 */
+	protected void read(NetworkSerializable serializableData, ArrayList<NetworkApplicationData> messages) throws IOException {
+		if (channel.read(readBuffer) < 0)
+			throw new IOException("Connection closed by " + host);
+		readBuffer.flip();
+		while (readBuffer.remaining() >= MessageCodec.FRAME_HEADER_SIZE) {
+			int length = readBuffer.getInt(readBuffer.position());
+			byte kind = readBuffer.get(readBuffer.position() + 4);
+			if (length < 0 || length > MessageCodec.MAX_FRAME_SIZE || kind != MessageCodec.FRAME_MESSAGE)
+				throw new IOException("Invalid frame received from " + host);
+			// Incomplete frame?  Make room for it if needed and wait for the rest
+			if (readBuffer.remaining() < MessageCodec.FRAME_HEADER_SIZE + length) {
+				if (readBuffer.capacity() < MessageCodec.FRAME_HEADER_SIZE + length) {
+					ByteBuffer larger = ByteBuffer.allocate(MessageCodec.FRAME_HEADER_SIZE + length);
+					larger.put(readBuffer);
+					readBuffer = larger;
+					return;
+				}
+				break;
+			}
+			readBuffer.position(readBuffer.position() + MessageCodec.FRAME_HEADER_SIZE);
+			messages.add(MessageCodec.decode(serializableData, readBuffer.array(), readBuffer.arrayOffset() + readBuffer.position(), length));
+			readBuffer.position(readBuffer.position() + length);
+		}
+		readBuffer.compact();
+	}
+
+	/**
+	 * Waits until the connection is established (or fails)
+	 * @param timeoutMS max time to wait
+	 * @return true if the connection is established, false otherwise
+	 */
+	protected synchronized boolean waitConnected(long timeoutMS) {
+		long deadline = System.currentTimeMillis() + timeoutMS;
+		try {
+			while (!connected && !closed && System.currentTimeMillis() < deadline)
+				wait(Math.max(1, deadline - System.currentTimeMillis()));
+		}
+		catch (InterruptedException e) {
+			Logger.w(e.getMessage());
+		}
+		return connected;
+	}
+
+	/**
+	 * Updates the connection status, notifying waiting threads
+	 * @param connected true if the connection is established
+	 */
+	protected synchronized void setConnected(boolean connected) {
+		this.connected = connected;
+		notifyAll();
+	}
+
+	/**
+	 * Closes the channel and discards pending frames
+	 * @return true if the connection was open, false if it was already closed
+	 */
+	protected synchronized boolean close() {
+		if (closed)
+			return false;
+		closed = true;
+		connected = false;
+		writeQueue.clear();
+		notifyAll();
+		try {
+			if (key != null)
+				key.cancel();
+			channel.close();
+		}
+		catch (Exception e) {
+			Logger.w(e.getMessage());
+		}
+		return true;
+	}
+
+	/**
+	 * Default Getter
+	 * @return true if the connection is established, false otherwise
+	 */
+	public synchronized boolean isConnected() {
+		return connected;
+	}
+
+	/**
+	 * Default Getter
+	 * @return the peer IP
+	 */
+	public String getHost() {
+		return host;
+	}
+}
@@ -0,0 +1,242 @@
+package networkdcq.communication;
+
+/**
+ * Single selector loop serving every inbound and outbound peer connection of {@link NIOCommunication}.
+ * All channel I/O happens in the reactor thread, so the amount of threads does not depend on the
+ * amount of hosts.  Other threads interact with the reactor by queueing registrations and frames.
+ */
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import networkdcq.NetworkApplicationData;
+import networkdcq.util.Logger;
+
+public class NIOReactor implements Runnable {
+
+	/** Owner of the connections */
+	protected NIOCommunication communication;
+	/** Selector for every channel */
+	protected Selector selector;
+	/** Server channel (null if not listening) */
+	protected ServerSocketChannel serverChannel = null;
+	/** Reactor is running */
+	protected volatile boolean running = false;
+	/** New connections to be registered */
+	protected ConcurrentLinkedQueue<NIOConnection> pendingRegistrations = new ConcurrentLinkedQueue<NIOConnection>();
+	/** Connections with new frames to be written */
+	protected ConcurrentLinkedQueue<NIOConnection> pendingWrites = new ConcurrentLinkedQueue<NIOConnection>();
+	/** Messages decoded in the current read */
+	protected ArrayList<NetworkApplicationData> received = new ArrayList<NetworkApplicationData>();
+
+	/**
+	 * Constructor
+	 * @param communication owner of the connections
+	 * @throws IOException if the selector cannot be opened
+	 */
+	public NIOReactor(NIOCommunication communication) throws IOException {
+		this.communication = communication;
+		this.selector = Selector.open();
+	}
+
+	/**
+	 * Starts accepting inbound connections.  Must be invoked before starting the reactor thread.
+	 * @param port local port
+	 * @throws IOException if the port cannot be bound
+	 */
+	public void listen(int port) throws IOException {
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.configureBlocking(false);
+		serverChannel.socket().setReuseAddress(true);
+		serverChannel.socket().bind(new InetSocketAddress(communication.getBindAddress(), port));
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+	}
+
+	/**
+	 * Starts a non-blocking connection to a server
+	 * @param ip server IP
+	 * @param port server port
+	 * @return the new connection, which may not be established yet
+	 * @throws IOException in case of socket error
+	 */
+	public NIOConnection connect(String ip, int port) throws IOException {
+		SocketChannel channel = SocketChannel.open();
+		channel.configureBlocking(false);
+		InetAddress bindAddress = communication.getBindAddress();
+		if (bindAddress != null)
+			channel.socket().bind(new InetSocketAddress(bindAddress, 0));
+		NIOConnection connection = new NIOConnection(channel, ip);
+		if (channel.connect(new InetSocketAddress(ip, port)))
+			connection.setConnected(true);
+		pendingRegistrations.add(connection);
+		selector.wakeup();
+		return connection;
+	}
+
+	/**
+	 * Queues a frame to be written by the reactor thread
+	 * @param connection target connection
+	 * @param frame header and payload buffers
+	 */
+	public void write(NIOConnection connection, ByteBuffer[] frame) {
+		if (connection.enqueue(frame)) {
+			pendingWrites.add(connection);
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Stops the reactor.  The reactor thread closes every channel before ending.
+	 */
+	public void stop() {
+		running = false;
+		selector.wakeup();
+	}
+
+	/**
+	 * Reactor main loop
+	 */
+	public void run() {
+		while (running) {
+			try {
+				selector.select();
+				registerPending();
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid())
+						continue;
+					if (key.isAcceptable())
+						accept();
+					else {
+						NIOConnection connection = (NIOConnection)key.attachment();
+						try {
+							if (key.isConnectable())
+								finishConnect(connection);
+							if (key.isValid() && key.isReadable())
+								read(connection);
+							if (key.isValid() && key.isWritable())
+								flush(connection);
+						}
+						catch (IOException e) {
+							Logger.w(e.getMessage());
+							communication.connectionLost(connection);
+						}
+					}
+				}
+			}
+			catch (Exception e) {
+				Logger.e(e.getMessage());
+			}
+		}
+		close();
+	}
+
+	/**
+	 * Registers new connections and write interests queued by other threads
+	 */
+	protected void registerPending() {
+		NIOConnection connection;
+		while ((connection = pendingRegistrations.poll()) != null) {
+			try {
+				connection.key = connection.channel.register(selector, connection.isConnected() ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, connection);
+				// Frames may have been queued before registration
+				if (connection.isConnected())
+					pendingWrites.add(connection);
+			}
+			catch (IOException e) {
+				Logger.w(e.getMessage());
+				communication.connectionLost(connection);
+			}
+		}
+		while ((connection = pendingWrites.poll()) != null) {
+			try {
+				if (connection.key != null && connection.key.isValid() && connection.isConnected())
+					flush(connection);
+			}
+			catch (IOException e) {
+				Logger.w(e.getMessage());
+				communication.connectionLost(connection);
+			}
+		}
+	}
+
+	/**
+	 * Accepts a new inbound connection
+	 * @throws IOException in case of socket error
+	 */
+	protected void accept() throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if (channel == null)
+			return;
+		channel.configureBlocking(false);
+		NIOConnection connection = new NIOConnection(channel, channel.socket().getInetAddress().getHostAddress());
+		connection.setConnected(true);
+		connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+		Logger.i("Creating connection to: " + connection.host);
+	}
+
+	/**
+	 * Completes an outbound connection
+	 * @param connection the connection
+	 * @throws IOException if the connection could not be established
+	 */
+	protected void finishConnect(NIOConnection connection) throws IOException {
+		if (!connection.channel.finishConnect())
+			return;
+		connection.setConnected(true);
+		connection.key.interestOps(SelectionKey.OP_READ);
+		flush(connection);
+	}
+
+	/**
+	 * Reads and notifies incoming messages
+	 * @param connection the connection
+	 * @throws IOException in case of socket error
+	 */
+	protected void read(NIOConnection connection) throws IOException {
+		received.clear();
+		connection.read(communication.getSerializableData(), received);
+		for (NetworkApplicationData data : received)
+			communication.processMessage(data);
+	}
+
+	/**
+	 * Writes pending frames, keeping write interest only while the socket buffer is full
+	 * @param connection the connection
+	 * @throws IOException in case of socket error
+	 */
+	protected void flush(NIOConnection connection) throws IOException {
+		if (connection.flush())
+			connection.key.interestOps(SelectionKey.OP_READ);
+		else
+			connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+	}
+
+	/**
+	 * Closes every channel and the selector
+	 */
+	protected void close() {
+		try {
+			for (SelectionKey key : selector.keys())
+				if (key.attachment() instanceof NIOConnection)
+					((NIOConnection)key.attachment()).close();
+			if (serverChannel != null)
+				serverChannel.close();
+			selector.close();
+		}
+		catch (Exception e) {
+			Logger.w(e.getMessage());
+		}
+	}
+}
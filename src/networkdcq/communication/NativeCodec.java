@@ -0,0 +1,157 @@
+package networkdcq.communication;
+
+/**
+ * Compact class descriptors for native serialization.  Streams are reset after every message, so that
+ * their back-reference tables do not grow, but then every message carries the complete descriptors
+ * (name, serialVersionUID and fields) of its class, its superclasses and every nested type.  With
+ * {@code NetworkCommunication.NATIVE_COMPACT_DESCRIPTORS} a descriptor is written as the ID of a registered
+ * class (see {@link #registerClass(Class)}) or else just its name, and the reader uses the local descriptor
+ * of the class.  Every host in the group must use the same setting, the same versions of the exchanged
+ * classes and register the same classes in the same order.
+ * <p>
+ * Compact descriptor: {@code DESCRIPTOR_REGISTERED} (byte) + class ID (short), or {@code DESCRIPTOR_NAME} (byte)
+ * + class name (UTF)
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import networkdcq.Host;
+import networkdcq.NetworkApplicationData;
+import networkdcq.qos.QoSMonitorTestMessage;
+
+public class NativeCodec {
+
+	/** Compact descriptor: registered class, followed by its ID */
+	public static final byte DESCRIPTOR_REGISTERED = 0;
+	/** Compact descriptor: unregistered class, followed by its name */
+	public static final byte DESCRIPTOR_NAME = 1;
+
+	/** Registered classes, by ID */
+	protected static volatile Class<?>[] classes = new Class<?>[0];
+	/** Registered class IDs, by class name */
+	protected static final ConcurrentHashMap<String, Integer> classIDs = new ConcurrentHashMap<String, Integer>();
+
+	static {
+		registerClass(NetworkApplicationData.class);
+		registerClass(Host.class);
+		registerClass(QoSMonitorTestMessage.class);
+		registerClass(Number.class);
+		registerClass(Integer.class);
+		registerClass(Long.class);
+		registerClass(Float.class);
+		registerClass(Double.class);
+		registerClass(Boolean.class);
+	}
+
+	/**
+	 * Registers a class, so that its descriptor is written as a 2 bytes ID instead of its name.  Classes
+	 * must be registered before starting the communication, in the same order on every host
+	 * @param cls a serializable class, typically the NetworkApplicationData subclasses of the application
+	 * @return the class ID
+	 */
+	public static synchronized int registerClass(Class<?> cls) {
+		Integer id = classIDs.get(cls.getName());
+		if (id != null)
+			return id;
+		if (classes.length > Short.MAX_VALUE)
+			throw new IllegalStateException("Too many registered classes");
+		Class<?>[] registered = new Class<?>[classes.length + 1];
+		System.arraycopy(classes, 0, registered, 0, classes.length);
+		registered[classes.length] = cls;
+		classes = registered;
+		classIDs.put(cls.getName(), classes.length - 1);
+		return classes.length - 1;
+	}
+
+	/**
+	 * Creates a native serialization output stream, compact if {@code NATIVE_COMPACT_DESCRIPTORS}.  The stream header is written
+	 * @param output target stream
+	 * @return the object stream
+	 * @throws IOException in case of socket error
+	 */
+	public static ObjectOutputStream newOutputStream(OutputStream output) throws IOException {
+		return NetworkCommunication.NATIVE_COMPACT_DESCRIPTORS ? new CompactOutputStream(output) : new ObjectOutputStream(output);
+	}
+
+	/**
+	 * Creates a native serialization input stream, compact if {@code NATIVE_COMPACT_DESCRIPTORS}.  Blocks until the stream header is read
+	 * @param input source stream
+	 * @return the object stream
+	 * @throws IOException in case of socket error or invalid header
+	 */
+	public static ObjectInputStream newInputStream(InputStream input) throws IOException {
+		return NetworkCommunication.NATIVE_COMPACT_DESCRIPTORS ? new CompactInputStream(input) : new ObjectInputStream(input);
+	}
+
+	/**
+	 * Writes compact class descriptors
+	 */
+	public static class CompactOutputStream extends ObjectOutputStream {
+
+		public CompactOutputStream(OutputStream output) throws IOException {
+			super(output);
+		}
+
+		@Override
+		protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+			Integer id = classIDs.get(desc.getName());
+			if (id != null) {
+				writeByte(DESCRIPTOR_REGISTERED);
+				writeShort(id);
+			}
+			else {
+				writeByte(DESCRIPTOR_NAME);
+				writeUTF(desc.getName());
+			}
+		}
+	}
+
+	/**
+	 * Reads compact class descriptors, replacing them with the local descriptors
+	 */
+	public static class CompactInputStream extends ObjectInputStream {
+
+		public CompactInputStream(InputStream input) throws IOException {
+			super(input);
+		}
+
+		@Override
+		protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+			Class<?> cls;
+			byte kind = readByte();
+			if (kind == DESCRIPTOR_REGISTERED) {
+				int id = readShort();
+				Class<?>[] registered = classes;
+				if (id < 0 || id >= registered.length)
+					throw new InvalidClassException("Unregistered class ID: " + id);
+				cls = registered[id];
+			}
+			else if (kind == DESCRIPTOR_NAME) {
+				String name = readUTF();
+				ClassLoader loader = Thread.currentThread().getContextClassLoader();
+				cls = Class.forName(name, false, loader != null ? loader : NativeCodec.class.getClassLoader());
+			}
+			else
+				throw new StreamCorruptedException("Invalid class descriptor: " + kind);
+			ObjectStreamClass desc = ObjectStreamClass.lookup(cls);
+			if (desc == null)
+				throw new InvalidClassException(cls.getName(), "Not serializable");
+			return desc;
+		}
+
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+			// Local descriptors are already bound to their class
+			Class<?> cls = desc.forClass();
+			return cls != null ? cls : super.resolveClass(desc);
+		}
+	}
+}
@@ -1,9 +1,20 @@
 package networkdcq.communication;
 
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import networkdcq.ConsumerDispatcher;
 import networkdcq.Host;
 import networkdcq.NetworkApplicationData;
+import networkdcq.NetworkApplicationDataChangeTracker;
 import networkdcq.NetworkApplicationDataConsumer;
 import networkdcq.NetworkApplicationDataProducer;
+import networkdcq.NetworkDCQ;
+import networkdcq.NetworkDCQRuntime;
+import networkdcq.util.FixedRateTicker;
+import networkdcq.util.IterateableConcurrentHashMap;
+import networkdcq.util.Logger;
 import networkdcq.util.NetworkSerializable;
 
 public abstract class NetworkCommunication {
@@ -12,15 +23,59 @@ public abstract class NetworkCommunication {
 	public static int BROADCAST_LOCAL_STATUS_INTERVAL_MS = 30;
 	/** Interval between status updates to the other hosts (nanoseconds) */
 	public static int BROADCAST_LOCAL_STATUS_INTERVAL_NS = 0;
+	/** Multi-platform messages delimited by {@code NetworkSerializable.VARIABLE_END_OF_VARIABLES} (default) */
+	public static final int SERIALIZABLE_MODE_DELIMITED = 0;
+	/** Multi-platform messages preceded by a length header (see {@link MessageCodec}) */
+	public static final int SERIALIZABLE_MODE_FRAMED = 1;
+	/** As {@code SERIALIZABLE_MODE_FRAMED}, but local status snapshots are sent as deltas (see {@link DeltaCodec}) */
+	public static final int SERIALIZABLE_MODE_FRAMED_DELTA = 2;
+	/** Broadcast ticks missed because of slow serialization or fan-out are skipped, or run back to back (see {@link FixedRateTicker}) */
+	public static int BROADCAST_TICK_POLICY = FixedRateTicker.POLICY_SKIP;
+	/** If true, unchanged local status snapshots are not broadcast, except as a heartbeat (see {@link NetworkApplicationDataChangeTracker}) */
+	public static boolean BROADCAST_ON_CHANGE = false;
+	/** Max interval between broadcasts of an unchanged local status, with {@code BROADCAST_ON_CHANGE} (miliseconds) */
+	public static int BROADCAST_HEARTBEAT_INTERVAL_MS = 1000;
+	/** Max time a queued message waits for more messages to the same host, to be written together (miliseconds, default for every connection) */
+	public static int BATCH_MAX_DELAY_MS = 0;
+	/** Max size of the messages written together to a host (bytes, default for every connection) */
+	public static int BATCH_MAX_BYTES = 16 * 1024;
+	/** If true, native serialization writes class descriptors as a registered ID or name (see {@link NativeCodec}).  Every host in the group must use the same setting */
+	public static boolean NATIVE_COMPACT_DESCRIPTORS = false;
+	/** If true, framed messages to the hosts which support it are compressed (see {@link CompressionCodec}) */
+	public static boolean COMPRESSION_ENABLED = false;
+	/** Min size of a frame to be compressed (bytes).  Smaller frames are sent as they are */
+	public static int COMPRESSION_MIN_SIZE = 128;
+	/** If true, sockets of every runtime are bound to the IP of its host instead of every local address (see {@code NetworkDCQRuntime.setBindToHostIP()}) */
+	public static boolean BIND_TO_HOST_IP = false;
 	
 	/** Local data producer instance */
 	protected NetworkApplicationDataProducer producer = null;
 	/** Remote data consumer instance */
 	protected NetworkApplicationDataConsumer consumer = null;
+    /** Queues the events of the consumer, created on first use (see {@link #getDispatcher()}) */
+    protected volatile ConsumerDispatcher dispatcher = null;
     /** Message data to send/receive (native platform) */
     protected NetworkApplicationData data = null;
     /** Instance used simply to know if multi-platform exchange should be used instead of native */
     protected NetworkSerializable serializableData = null;
+    /** Wire format for multi-platform exchange. Every host in the group must use the same mode */
+    protected int serializableMode = SERIALIZABLE_MODE_DELIMITED;
+    /** Serializations avoided by the last sendMessageToAllHosts() (hosts reached minus one) */
+    protected int lastBroadcastSavedSerializations = 0;
+    /** Serializations avoided by every sendMessageToAllHosts() since startup */
+    protected long totalSavedSerializations = 0;
+    /** Schedules the broadcast of the local status, and measures its period */
+    protected volatile FixedRateTicker broadcastTicker = null;
+    /** Last broadcast time (System.nanoTime()), with {@code BROADCAST_ON_CHANGE} */
+    protected long lastBroadcastNS = 0;
+    /** Broadcast targets at the last broadcast (an immutable snapshot, replaced whenever they change), with {@code BROADCAST_ON_CHANGE} */
+    protected IterateableConcurrentHashMap.Snapshot<String, ?> lastBroadcastTargets = null;
+    /** Fingerprint of the last broadcast snapshot, with {@code BROADCAST_ON_CHANGE} */
+    protected long lastBroadcastFingerprint = 0;
+    /** Broadcast ticks suppressed because the local status was unchanged */
+    protected long suppressedBroadcasts = 0;
+    /** Runtime this instance belongs to */
+    protected NetworkDCQRuntime runtime = null;
 
     
     /**
@@ -54,6 +109,24 @@ public abstract class NetworkCommunication {
 	public void setConsumer(NetworkApplicationDataConsumer consumer) {
 		this.consumer = consumer;
 	}
+
+	/**
+	 * Retrieves the consumer network threads must notify: a {@link ConsumerDispatcher}, which runs the
+	 * consumer in the consumer executor of the runtime, or the consumer itself if {@code ConsumerDispatcher.DISPATCHER_ENABLED} is false
+	 * @return the consumer events must be sent to
+	 */
+	public NetworkApplicationDataConsumer getDispatcher() {
+		if (!ConsumerDispatcher.DISPATCHER_ENABLED || consumer == null)
+			return consumer;
+		ConsumerDispatcher current = dispatcher;
+		if (current != null && current.getConsumer() == consumer)
+			return current;
+		synchronized (this) {
+			if (dispatcher == null || dispatcher.getConsumer() != consumer)
+				dispatcher = new ConsumerDispatcher(consumer, getRuntime());
+			return dispatcher;
+		}
+	}
     
 	/**
 	 * Default networkApplicationData getter
@@ -87,8 +160,172 @@ public abstract class NetworkCommunication {
 		this.serializableData = serializableData;
 	}
 
+	/**
+	 * Tells whether this communication compresses its messages and decompresses the ones
+	 * of other hosts.  Advertised to the other hosts by the discovery
+	 * @return false, unless supported by the communication type and {@code COMPRESSION_ENABLED}
+	 */
+	public boolean isCompressionSupported() {
+		return false;
+	}
+
+	/**
+	 * Drops the connection with a host without telling the app, e.g. because the host restarted.
+	 * The next {@link #connectToServerHost(Host)} opens a new connection.  Nothing to do by default
+	 * @param ip host IP
+	 */
+	public void dropConnection(String ip) {
+	}
+
+	/**
+	 * Default serializableMode getter
+	 * @return {@code SERIALIZABLE_MODE_DELIMITED}, {@code SERIALIZABLE_MODE_FRAMED} or {@code SERIALIZABLE_MODE_FRAMED_DELTA}
+	 */
+	public int getSerializableMode() {
+		return serializableMode;
+	}
+
+	/**
+	 * Default serializableMode setter.  Must be set before starting the communication services
+	 * @param serializableMode {@code SERIALIZABLE_MODE_DELIMITED}, {@code SERIALIZABLE_MODE_FRAMED} or {@code SERIALIZABLE_MODE_FRAMED_DELTA}
+	 */
+	public void setSerializableMode(int serializableMode) {
+		this.serializableMode = serializableMode;
+	}
+
 
 	
+	/**
+	 * Default getter
+	 * @return serializations avoided by the last broadcast, as the message is encoded once for every host
+	 */
+	public int getLastBroadcastSavedSerializations() {
+		return lastBroadcastSavedSerializations;
+	}
+
+	/**
+	 * Default getter
+	 * @return serializations avoided by every broadcast since startup
+	 */
+	public long getTotalSavedSerializations() {
+		return totalSavedSerializations;
+	}
+
+	/**
+	 * Updates the saved serializations counters after a broadcast 
+	 * @param hostCount amount of hosts which received the same encoded message
+	 */
+	protected void broadcastSent(int hostCount) {
+		lastBroadcastSavedSerializations = hostCount > 0 ? hostCount - 1 : 0;
+		totalSavedSerializations += lastBroadcastSavedSerializations;
+	}
+
+	/**
+	 * Default getter
+	 * @return broadcast ticks suppressed because the local status was unchanged (see {@code BROADCAST_ON_CHANGE})
+	 */
+	public long getSuppressedBroadcasts() {
+		return suppressedBroadcasts;
+	}
+
+	/**
+	 * Produces and encodes the local status snapshot of a broadcast tick.  With {@code BROADCAST_ON_CHANGE}, unchanged
+	 * snapshots are suppressed, unless the targets changed (a new host must receive the status right away)
+	 * or {@code BROADCAST_HEARTBEAT_INTERVAL_MS} elapsed since the last broadcast
+	 * @param targets hosts the snapshot would be sent to (the map snapshot is replaced whenever they change)
+	 * @return the snapshot, encoded by {@link #encodeBroadcast(NetworkApplicationData)}, or null if there is nothing to send
+	 */
+	protected EncodedMessage produceBroadcast(IterateableConcurrentHashMap.Snapshot<String, ?> targets) {
+		if (targets.size() == 0)
+			return null;
+		long nowNS = System.nanoTime();
+		boolean forced = !BROADCAST_ON_CHANGE || targets != lastBroadcastTargets || lastBroadcastNS == 0 || nowNS - lastBroadcastNS >= BROADCAST_HEARTBEAT_INTERVAL_MS * 1000000L;
+		boolean tracked = producer instanceof NetworkApplicationDataChangeTracker;
+		// The producer knows: no need to produce nor to serialize
+		if (!forced && tracked && !((NetworkApplicationDataChangeTracker)producer).isLocalStatusChanged()) {
+			suppressedBroadcasts++;
+			return null;
+		}
+		NetworkApplicationData data = producer.produceNetworkApplicationData();
+		if (data == null)
+			return null;
+		EncodedMessage message;
+		try {
+			message = encodeBroadcast(data);
+		}
+		catch (Exception e) {
+			Logger.w("Exception encoding object:" + e.getMessage());
+			return null;
+		}
+		if (!BROADCAST_ON_CHANGE)
+			return message;
+		if (!tracked) {
+			// Compare the bytes to be sent with the last ones
+			long fingerprint = message.fingerprint();
+			if (!forced && fingerprint == lastBroadcastFingerprint) {
+				suppressedBroadcasts++;
+				return null;
+			}
+			lastBroadcastFingerprint = fingerprint;
+		}
+		lastBroadcastNS = nowNS;
+		lastBroadcastTargets = targets;
+		return message;
+	}
+
+	/**
+	 * Encodes a local status snapshot, in the format the broadcast of this communication sends
+	 * @param data snapshot to encode
+	 * @return the encoded snapshot
+	 * @throws IOException in case of serialization error
+	 */
+	protected EncodedMessage encodeBroadcast(NetworkApplicationData data) throws IOException {
+		return new EncodedMessage(data, MessageCodec.encode(getSerializableData(), data));
+	}
+
+	/**
+	 * Creates the ticker of a broadcast loop, at the {@code BROADCAST_LOCAL_STATUS_INTERVAL_MS} + {@code BROADCAST_LOCAL_STATUS_INTERVAL_NS} rate
+	 * @return the ticker, whose first tick is due now
+	 */
+	protected FixedRateTicker startBroadcastTicker() {
+		broadcastTicker = new FixedRateTicker(BROADCAST_LOCAL_STATUS_INTERVAL_MS * 1000000L + BROADCAST_LOCAL_STATUS_INTERVAL_NS, BROADCAST_TICK_POLICY);
+		return broadcastTicker;
+	}
+
+	/**
+	 * Default getter
+	 * @return the ticker of the broadcast (actual period, jitter and overruns), or null if never started
+	 */
+	public FixedRateTicker getBroadcastTicker() {
+		return broadcastTicker;
+	}
+
+	/**
+	 * Default Getter
+	 * @return the runtime this instance belongs to, or the default runtime if not set
+	 */
+	public NetworkDCQRuntime getRuntime() {
+		return runtime != null ? runtime : NetworkDCQ.getRuntime();
+	}
+
+	/**
+	 * Default Setter
+	 * @param runtime the runtime this instance belongs to
+	 */
+	public void setRuntime(NetworkDCQRuntime runtime) {
+		this.runtime = runtime;
+	}
+
+	/**
+	 * Shortcut for:
+	 * <code>getRuntime().getBindAddress()</code>
+	 * @return the local address sockets must be bound to, or null for every local address
+	 * @throws UnknownHostException if this host IP is not valid
+	 */
+	protected InetAddress getBindAddress() throws UnknownHostException {
+		return getRuntime().getBindAddress();
+	}
+
 	/* 
 	 * ================================================================================================= 
 	 */
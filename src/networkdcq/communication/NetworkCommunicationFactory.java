@@ -4,6 +4,12 @@ public class NetworkCommunicationFactory {
 	
 	/** Network communication through TCP Sockets */
 	public static final int COMMUNICATION_METHOD_TCP = 1;
+	/** Network communication through non-blocking TCP channels served by a single selector thread */
+	public static final int COMMUNICATION_METHOD_NIO = 2;
+	/** Local status snapshots through UDP datagrams, other messages through TCP Sockets */
+	public static final int COMMUNICATION_METHOD_UDP = 3;
+	/** Local status snapshots through a UDP multicast group, other messages through TCP Sockets */
+	public static final int COMMUNICATION_METHOD_MULTICAST = 4;
 	/** Selected network communication implementation instance */
 	protected static NetworkCommunication instance = null;
 	
@@ -16,20 +22,33 @@ public class NetworkCommunicationFactory {
 	}
 	
 	/**
-	 * Factory for network communication
+	 * Factory for network communication.  Always returns the same instance, which is used by the default runtime
 	 * @param method identifier for default network communication method
 	 * @return an instance of the network communication method selected, or null otherwise
 	 */
 	public static NetworkCommunication getNetworkCommunication(int method) {
-		if (instance != null)
-			return instance;
+		if (instance == null)
+			instance = createNetworkCommunication(method);
+		return instance;
+	}
+	
+	/**
+	 * Creates a new network communication instance, for a new {@code NetworkDCQRuntime}
+	 * @param method identifier for network communication method
+	 * @return a new instance of the network communication method selected, or null otherwise
+	 */
+	public static NetworkCommunication createNetworkCommunication(int method) {
 		switch (method) {
 			case COMMUNICATION_METHOD_TCP:
-				instance = new TCPCommunication();
-				break;
+				return new TCPCommunication();
+			case COMMUNICATION_METHOD_NIO:
+				return new NIOCommunication();
+			case COMMUNICATION_METHOD_UDP:
+				return new UDPCommunication();
+			case COMMUNICATION_METHOD_MULTICAST:
+				return new MulticastCommunication();
 			default:
 				return null;
 		}
-		return instance;
 	}
 }
@@ -0,0 +1,22 @@
+package networkdcq.communication;
+
+/**
+ * An encoded message waiting in the send queue of a {@link TCPClient}
+ */
+
+public class OutboundMessage {
+
+	/** Message to be written */
+	protected EncodedMessage message;
+	/** Enqueue time (ns), for queue latency measurement */
+	protected long enqueueTimeNS;
+
+	/**
+	 * Constructor
+	 * @param message message to be written
+	 */
+	public OutboundMessage(EncodedMessage message) {
+		this.message = message;
+		this.enqueueTimeNS = System.nanoTime();
+	}
+}
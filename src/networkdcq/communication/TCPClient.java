@@ -1,30 +1,59 @@
 package networkdcq.communication;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.OutputStream;
 import java.net.Socket;
-
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import networkdcq.Host;
 import networkdcq.NetworkApplicationData;
-import networkdcq.NetworkDCQ;
-import networkdcq.discovery.HostDiscovery;
 import networkdcq.util.Logger;
 
 public class TCPClient extends TCPNetwork {
 
+	/** Max messages waiting to be written for a single host.  Further messages are dropped */
+	public static int SEND_QUEUE_CAPACITY = 64;
+	/** If true, an unsent local status snapshot is replaced by a newer one instead of queueing both */
+	public static boolean CONFLATE_STATE_MESSAGES = false;
+
 	/** Is this client already connected to a server? */
-	protected boolean connected = false;
+	protected volatile boolean connected = false;
+	/** Messages waiting to be written by this client's writer thread */
+	protected ArrayBlockingQueue<OutboundMessage> sendQueue = new ArrayBlockingQueue<OutboundMessage>(SEND_QUEUE_CAPACITY);
+	/** Local status snapshot still waiting in the send queue (conflation mode only) */
+	protected OutboundMessage pendingState = null;
+	/** Snapshots replaced by a newer one before being written */
+	protected long conflatedMessages = 0;
+	/** Sequence of the last local status snapshot written (delta encoding only) */
+	protected int lastStateSequence = 0;
+	/** Messages dropped because the send queue was full */
+	protected long droppedMessages = 0;
+	/** Messages written to the socket */
+	protected long sentMessages = 0;
+	/** Max time a message waits for more messages to be written together (ms, see {@code BATCH_MAX_DELAY_MS}) */
+	protected volatile int batchMaxDelayMS = BATCH_MAX_DELAY_MS;
+	/** Max size of the messages written together (bytes, see {@code BATCH_MAX_BYTES}) */
+	protected volatile int batchMaxBytes = BATCH_MAX_BYTES;
+	/** Messages written together, copied into a single write */
+	protected ByteArrayOutputStream batch = null;
+	/** Writes to the socket (each one carrying one or more messages) */
+	protected long writtenBatches = 0;
+	/** Accumulated time between enqueue and write of the sent messages (ns) */
+	protected long totalEnqueueLatencyNS = 0;
+	/** Max time between enqueue and write of a sent message (ns) */
+	protected long maxEnqueueLatencyNS = 0;
 	
     /**
      * Constructor
+     * @param communication communication this client belongs to
      * @param ip del server al cual conectar
      */
-    public TCPClient(String ip) {
+    public TCPClient(TCPCommunication communication, String ip) {
+    	super(communication);
         this.host = ip;
-        this.port = TCP_PORT;
+        this.port = communication.getRuntime().getTCPPort();
     }
     
     /**
@@ -34,18 +63,22 @@ public class TCPClient extends TCPNetwork {
     public boolean connect() {
     	Logger.i("Connecting to:" + host);
         try {
-            socket = new Socket(host, port);
-            OutputStream output = socket.getOutputStream();
+            socket = new Socket(host, port, getBindAddress(), 0);
+            output = socket.getOutputStream();
             InputStream input = socket.getInputStream();
-            if (NetworkDCQ.getCommunication().getSerializableData() == null) {
-            	toBuffer = new ObjectOutputStream(output);
-            	fromBuffer = new ObjectInputStream(input);
+            if (communication.getSerializableData() == null) {
+            	toBuffer = NativeCodec.newOutputStream(output);
+            	// Stream header must be sent before any queued message
+            	toBuffer.flush();
+            	fromBuffer = NativeCodec.newInputStream(input);
             }
             else {
             	toBufferSerializable = output;
             	fromBufferSerializable = input;
             }
             connected = true;
+            // Messages are written by a separate thread, so senders never block on socket I/O
+            getRuntime().execute(this);
         }
         catch (Exception ex) { 
         	Logger.e(ex.getMessage());
@@ -55,26 +88,300 @@ public class TCPClient extends TCPNetwork {
     }  
    
     /**
-     * Prepares and send a message to the otherHosts
+     * Prepares and queues a message to the otherHosts
      * @param networkGameData message to send
-     * @return true si pudo ser enviado o false en caso contrario
      */
     public void sendMessage(NetworkApplicationData networkGameData) throws Exception {
+    	sendMessage(communication.encode(networkGameData));
+    }
+    
+    /**
+     * Queues an already encoded message to the otherHosts.  Never blocks: if the send queue
+     * is full (the host is not reading fast enough) the message is dropped
+     * @param message message to send
+     * @return true if the message was queued, false otherwise
+     */
+    public boolean sendMessage(EncodedMessage message) {
+    	return sendMessage(message, false);
+    }
+    
+    /**
+     * Queues an already encoded message to the otherHosts.  Never blocks: if the send queue
+     * is full (the host is not reading fast enough) the message is dropped.  In conflation
+     * mode a local status snapshot replaces the previous one if it was not written yet, so
+     * at most one snapshot is queued and it is always the newest
+     * @param message message to send
+     * @param state true if the message is a local status snapshot
+     * @return true if the message was queued, false otherwise
+     */
+    public boolean sendMessage(EncodedMessage message, boolean state) {
     	if (!connected) {
     		Logger.e("Cannot send message. Not connected to host:" + host);
-    		return;
+    		return false;
+    	}
+    	synchronized (this) {
+	    	if (state && CONFLATE_STATE_MESSAGES && pendingState != null) {
+	    		// Replace in place, keeping the queue position
+	    		pendingState.message = message;
+	    		pendingState.enqueueTimeNS = System.nanoTime();
+	    		conflatedMessages++;
+	    		return true;
+	    	}
+	    	OutboundMessage next = new OutboundMessage(message);
+	    	if (!sendQueue.offer(next)) {
+	    		droppedMessages++;
+	    		return false;
+	    	}
+	    	if (state && CONFLATE_STATE_MESSAGES)
+	    		pendingState = next;
+	    	return true;
+    	}
+    }
+    
+    /**
+     * Writer main loop.  Writes the queued messages until the connection is lost.  Messages queued
+     * while writing, or within the batch delay, are coalesced into a single write
+     */
+    public void run() {
+    	try {
+	    	while (connected) {
+	    		OutboundMessage next = sendQueue.poll(1, TimeUnit.SECONDS);
+	    		if (next == null)
+	    			continue;
+	    		long deadlineNS = System.nanoTime() + batchMaxDelayMS * 1000000L;
+	    		EncodedMessage first = prepare(next);
+	    		// Taken messages are no longer updated by conflation
+	    		long firstEnqueueTimeNS = next.enqueueTimeNS;
+	    		int count = 1;
+	    		long totalEnqueueTimeNS = firstEnqueueTimeNS;
+	    		int size = first.size();
+	    		// More messages for the same write?
+	    		while (size < batchMaxBytes && (next = pollBatch(deadlineNS)) != null) {
+	    			if (count == 1) {
+	    				if (batch == null)
+	    					batch = new ByteArrayOutputStream(Math.max(batchMaxBytes, 512));
+	    				first.writeTo(batch);
+	    			}
+	    			EncodedMessage message = prepare(next);
+	    			message.writeTo(batch);
+	    			size += message.size();
+	    			totalEnqueueTimeNS += next.enqueueTimeNS;
+	    			count++;
+	    		}
+	    		if (count == 1)
+	    			write(first);
+	    		else
+	    			writeBatch();
+	    		long nowNS = System.nanoTime();
+	    		synchronized (this) {
+	    			writtenBatches++;
+	    			sentMessages += count;
+	    			totalEnqueueLatencyNS += count * nowNS - totalEnqueueTimeNS;
+	    			maxEnqueueLatencyNS = Math.max(maxEnqueueLatencyNS, nowNS - firstEnqueueTimeNS);
+	    		}
+	    	}
+    	}
+    	catch (Exception e) {
+    		Logger.w(e.getMessage());
+    		if (connected) {
+    			connected = false;
+    			communication.removeClient(host, this);
+    			connectionLost();
+    		}
+    	}
+    	synchronized (this) {
+    		sendQueue.clear();
+    		pendingState = null;
+    	}
+    	try {
+    		socket.close();
+    	}
+    	catch (Exception e) {
+    		Logger.w(e.getMessage());
+    	}
+    	if (compression != null)
+    		compression.close();
+    }
+
+    /**
+     * Takes the next message to be written together with the previous ones
+     * @param deadlineNS end of the batch delay (System.nanoTime())
+     * @return the message, or null if none was queued before the deadline
+     * @throws InterruptedException if interrupted while waiting
+     */
+    protected OutboundMessage pollBatch(long deadlineNS) throws InterruptedException {
+    	OutboundMessage next = sendQueue.poll();
+    	if (next != null)
+    		return next;
+    	long waitNS = deadlineNS - System.nanoTime();
+    	return waitNS > 0 ? sendQueue.poll(waitNS, TimeUnit.NANOSECONDS) : null;
+    }
+
+    /**
+     * Takes a message out of the send queue for writing
+     * @param next the queued message
+     * @return the encoding to be written to this connection
+     */
+    protected EncodedMessage prepare(OutboundMessage next) {
+    	EncodedMessage message;
+    	synchronized (this) {
+    		// Once taken, a snapshot can no longer be replaced
+    		if (next == pendingState)
+    			pendingState = null;
+    		message = next.message;
     	}
+    	// Delta encoded snapshots are written as delta only if this host got the previous one
+    	if (message instanceof DeltaEncodedMessage) {
+    		DeltaEncodedMessage snapshot = (DeltaEncodedMessage)message;
+    		message = snapshot.forConnection(lastStateSequence);
+    		lastStateSequence = snapshot.getSequence();
+    	}
+    	// Compressed only if worth it, and only if the host told it can decompress
+    	if (message.size() >= COMPRESSION_MIN_SIZE && communication.isCompressionSupported() && isCompressionAccepted()) {
+    		if (compression == null)
+    			compression = new CompressionCodec();
+    		message = compression.compress(message);
+    	}
+    	return message;
+    }
+
+    /**
+     * @return true if the host advertised it can decompress frames (see {@code Host.isCompressionSupported()})
+     */
+    protected boolean isCompressionAccepted() {
+    	Host target = getRuntime().getOtherHosts().get(host);
+    	return target != null && target.isCompressionSupported();
+    }
+
+    /**
+     * Writes the coalesced messages with a single write to the stream
+     * @throws IOException in case of socket error
+     */
+    protected void writeBatch() throws IOException {
+        try {
+        	batch.writeTo(output);
+        	output.flush();
+        }
+        catch (Exception ex) {
+        	Logger.w("Exception writing object:" + ex.getMessage());
+       		throw new IOException("Socket error");
+        }
+        finally {
+        	batch.reset();
+        }
+    }
+    
+    /**
+     * Closes the connection without telling the app.  The writer thread releases the rest of its resources
+     */
+    public void disconnect() {
+    	connected = false;
     	try {
-    		write(networkGameData);
+    		if (socket != null)
+    			socket.close();
     	}
     	catch (Exception e) {
-            // Tell the app that the connection with the host is lost
-        	NetworkDCQ.getCommunication().getConsumer().byeHost(new Host(host, false));
-        	HostDiscovery.removeHost(host);
-        	throw e;
+    		Logger.w(e.getMessage());
     	}
     }
 
+    /**
+     * Tells the app that the connection with the host is lost
+     */
+    protected void connectionLost() {
+    	communication.getDispatcher().byeHost(new Host(host, false));
+    	getRuntime().removeHost(host);
+    }
+
+    /**
+     * @return amount of messages waiting to be written
+     */
+    public int getQueueDepth() {
+    	return sendQueue.size();
+    }
+
+    /**
+     * @return frame compression of this connection, or null if no frame was compressed yet
+     */
+    public CompressionCodec getCompression() {
+    	return compression;
+    }
+
+    /**
+     * @return amount of writes to the socket, each one carrying one or more messages
+     */
+    public synchronized long getWrittenBatches() {
+    	return writtenBatches;
+    }
+
+    /**
+     * Default Getter
+     * @return max time a message waits for more messages to be written together (ms)
+     */
+    public int getBatchMaxDelayMS() {
+    	return batchMaxDelayMS;
+    }
+
+    /**
+     * Sets the latency/throughput trade-off of this connection.  With 0 (default, see {@code BATCH_MAX_DELAY_MS})
+     * messages are never delayed, but the ones queued while the previous write was in progress are still written together
+     * @param batchMaxDelayMS max time a message waits for more messages to be written together (ms)
+     */
+    public void setBatchMaxDelayMS(int batchMaxDelayMS) {
+    	this.batchMaxDelayMS = batchMaxDelayMS;
+    }
+
+    /**
+     * Default Getter
+     * @return max size of the messages written together (bytes)
+     */
+    public int getBatchMaxBytes() {
+    	return batchMaxBytes;
+    }
+
+    /**
+     * Default Setter.  A batch is written as soon as it reaches this size.  1 disables batching
+     * @param batchMaxBytes max size of the messages written together (bytes)
+     */
+    public void setBatchMaxBytes(int batchMaxBytes) {
+    	this.batchMaxBytes = batchMaxBytes;
+    }
+
+    /**
+     * @return amount of local status snapshots replaced by a newer one before being written
+     */
+    public synchronized long getConflatedMessages() {
+    	return conflatedMessages;
+    }
+
+    /**
+     * @return amount of messages dropped because the send queue was full
+     */
+    public synchronized long getDroppedMessages() {
+    	return droppedMessages;
+    }
+
+    /**
+     * @return amount of messages written to the socket
+     */
+    public synchronized long getSentMessages() {
+    	return sentMessages;
+    }
+
+    /**
+     * @return average time between enqueue and write of the sent messages (ns)
+     */
+    public synchronized long getAverageEnqueueLatencyNS() {
+    	return sentMessages == 0 ? 0 : totalEnqueueLatencyNS / sentMessages;
+    }
+
+    /**
+     * @return max time between enqueue and write of a sent message (ns)
+     */
+    public synchronized long getMaxEnqueueLatencyNS() {
+    	return maxEnqueueLatencyNS;
+    }
+
 	/**
 	 * Default Getter
 	 * @return true if this server is already connected to a server or false otherwise
@@ -1,34 +1,60 @@
 package networkdcq.communication;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
 import networkdcq.Host;
 import networkdcq.NetworkApplicationData;
-import networkdcq.discovery.HostDiscovery;
 import networkdcq.util.IterateableConcurrentHashMap;
+import networkdcq.util.FixedRateTicker;
 import networkdcq.util.Logger;
+import networkdcq.util.NetworkSerializable;
 
 public class TCPCommunication extends NetworkCommunication implements Runnable{
 
 	/** TCP Listener */
-	protected static TCPListener listener = null;
-	/** TCP Clients: Target Host IP - TCPConnection */
-	protected static IterateableConcurrentHashMap<String, TCPClient> clientPool = new IterateableConcurrentHashMap<String, TCPClient>();
+	protected TCPListener listener = null;
+	/** TCP Clients: Target Host IP - TCPConnection (null for connections, see {@link TCPNetwork}) */
+	protected IterateableConcurrentHashMap<String, TCPClient> clientPool = null;
 	/** Communication listener is running */
-	protected static boolean listenerRunning = false;
+	protected volatile boolean listenerRunning = false;
 	/** Communication broadcast is running */
-	protected static boolean broadcastRunning = false;
+	protected volatile boolean broadcastRunning = false;
+
+	/** Encoded bytes of the native serialization encoder */
+	protected ByteArrayOutputStream encoderBytes = null;
+	/** Native serialization encoder, producing the same bytes TCPNetwork.write() sends through a connection stream */
+	protected ObjectOutputStream encoder = null;
+	/** Local status snapshots encoder ({@code SERIALIZABLE_MODE_FRAMED_DELTA} only) */
+	protected DeltaCodec deltaEncoder = null;
+
+	/**
+	 * Constructor
+	 */
+	public TCPCommunication() {
+		this(true);
+	}
+
+	/**
+	 * Constructor
+	 * @param pools false for connections (see {@link TCPNetwork}), which use the pools of the communication they belong to
+	 */
+	protected TCPCommunication(boolean pools) {
+		if (pools)
+			clientPool = new IterateableConcurrentHashMap<String, TCPClient>();
+	}
 
-	private int i = 0;
-	
 	@Override
 	public boolean startService() {
 
 		try {
 	        // Create a new listener (server)
 			listenerRunning = true;
-	        listener = new TCPListener();
+	        listener = new TCPListener(this);
 	        Logger.i("Nuevo TCPListener");
 	        // Starts the listener in a new thread
-	        new Thread(listener).start();
+	        getRuntime().execute(listener);
 	        return true;
 		} 
 		catch (Exception e) {
@@ -44,7 +70,7 @@ public class TCPCommunication extends NetworkCommunication implements Runnable{
 		try {
 	        // Create the client for broadcasting
 			broadcastRunning = true;
-			new Thread(this).start();
+			getRuntime().execute(this);
 	        return true;
 		} 
 		catch (Exception e) {
@@ -70,52 +96,224 @@ public class TCPCommunication extends NetworkCommunication implements Runnable{
 	@Override
 	public boolean connectToServerHost(Host target) {
 		if (clientPool.get(target.getHostIP()) == null) 
-			clientPool.put(target.getHostIP(), new TCPClient(target.getHostIP()));
+			clientPool.put(target.getHostIP(), new TCPClient(this, target.getHostIP()));
 
 		TCPClient client = clientPool.get(target.getHostIP());
 		if (client!=null && !client.connected) {
 			client.connect();
-			HostDiscovery.otherHosts.put(target.getHostIP(), target);
+			getRuntime().getOtherHosts().put(target.getHostIP(), target);
 			return client.connected;
 		}
 		return client.connected; 
 	}
 	
 	@Override
-	public synchronized void sendMessage(Host targetHost, NetworkApplicationData data) {
+	public void sendMessage(Host targetHost, NetworkApplicationData data) {
 
 		// dont send nulls
 		if (data==null)
 			return;
-		// retrieve host IP
-		String targetIP = targetHost.getHostIP();
-		if (targetIP==null) {
-			Logger.w("Cannot send!  targetHost IP is null");
+		// get client from pool
+		TCPClient client = getConnectedClient(targetHost);
+		if (client==null)
 			return;
+		try {
+			client.sendMessage(encode(data));
+		}
+		catch (Exception e) {
+			Logger.w("Exception encoding object:" + e.getMessage());
 		}
+	}
+
+	/**
+	 * Queues an already encoded message to a target.  The message is written by the client thread
+	 * @param targetHost destination host
+	 * @param message message content, encoded by {@link #encode(NetworkApplicationData)}
+	 */
+	public void sendMessage(Host targetHost, EncodedMessage message) {
+		sendMessage(targetHost, message, false);
+	}
+
+	/**
+	 * Queues an already encoded message to a target.  The message is written by the client thread
+	 * @param targetHost destination host
+	 * @param message message content, encoded by {@link #encode(NetworkApplicationData)}
+	 * @param state true if the message is a local status snapshot, which supersedes any previous unsent snapshot
+	 */
+	protected void sendMessage(Host targetHost, EncodedMessage message, boolean state) {
 		// get client from pool
-		if (clientPool.get(targetIP)==null) {
-			Logger.e("Client is null");
+		TCPClient client = getConnectedClient(targetHost);
+		if (client!=null)
+			client.sendMessage(message, state);
+	}
+	
+	@Override
+	public void sendMessageToAllHosts(NetworkApplicationData data) {
+		sendMessageToAllHosts(data, false);
+	}
+
+	/**
+	 * Sends a single data message to all known hosts
+	 * @param data message content
+	 * @param state true if the message is a local status snapshot, which supersedes any previous unsent snapshot
+	 */
+	protected void sendMessageToAllHosts(NetworkApplicationData data, boolean state) {
+		// dont send nulls
+		if (data==null)
 			return;
+		sendMessageToAllHosts(data, null, state);
+	}
+
+	/**
+	 * Sends a local status snapshot, already encoded by {@link #produceBroadcast(IterateableConcurrentHashMap.Snapshot)}, to all known hosts
+	 * @param message the encoded snapshot, or null if there is nothing to send
+	 */
+	protected void sendBroadcast(EncodedMessage message) {
+		if (message!=null)
+			sendMessageToAllHosts(message.getData(), message, true);
+	}
+
+	/**
+	 * Sends a single data message to all known hosts
+	 * @param data message content
+	 * @param message the message already encoded, or null for encoding it only once, and only if there is at least one target
+	 * @param state true if the message is a local status snapshot, which supersedes any previous unsent snapshot
+	 */
+	protected void sendMessageToAllHosts(NetworkApplicationData data, EncodedMessage message, boolean state) {
+		int sent = 0;
+		IterateableConcurrentHashMap<String, Host> otherHosts = getRuntime().getOtherHosts();
+		IterateableConcurrentHashMap.Snapshot<String, TCPClient> clients = clientPool.snapshot();
+		for (int i=0; i<clients.size(); i++) {
+			Host host = otherHosts.get(clients.keyAt(i));
+			if (host!=null && host.isOnLine()) {
+				try {
+					if (message==null)
+						message = state ? encodeState(data) : encode(data);
+				}
+				catch (Exception e) {
+					Logger.w("Exception encoding object:" + e.getMessage());
+					encoder = null;
+					return;
+				}
+				sendMessage(host, message, state);
+				sent++;
+			}
 		}
-		if (!clientPool.get(targetIP).connected) {
-			Logger.w("Client not connected!");
-			return;
+		broadcastSent(sent);
+	}
+
+	/**
+	 * Encodes a message in the wire format of the client streams (see {@link TCPNetwork#write(NetworkApplicationData)})
+	 * @param data message to encode
+	 * @return the encoded message
+	 * @throws IOException in case of serialization error
+	 */
+	protected synchronized EncodedMessage encode(NetworkApplicationData data) throws IOException {
+		// Native serialization?
+		if (getSerializableData() == null) {
+			if (encoder == null) {
+				// Stream header is sent by each connection on creation, hence it is discarded
+				encoderBytes = new ByteArrayOutputStream();
+				encoder = NativeCodec.newOutputStream(encoderBytes);
+				encoder.flush();
+			}
+			encoderBytes.reset();
+			encoder.writeObject(data);
+			encoder.reset();
+			encoder.flush();
+			return new EncodedMessage(data, encoderBytes.toByteArray());
 		}
+		byte[] payload = ((NetworkSerializable)data).networkSerialize().getBytes();
+		// Multi-platform serialization, framed?
+		if (getSerializableMode() != SERIALIZABLE_MODE_DELIMITED)
+			return new EncodedMessage(data, MessageCodec.frame(MessageCodec.FRAME_MESSAGE, payload));
+		return new EncodedMessage(data, payload);
+	}
+
+	/**
+	 * Encodes a local status snapshot.  Same as {@link #encode(NetworkApplicationData)}, unless
+	 * {@code SERIALIZABLE_MODE_FRAMED_DELTA} is used
+	 * @param data snapshot to encode
+	 * @return the encoded message
+	 * @throws IOException in case of serialization error
+	 */
+	protected synchronized EncodedMessage encodeState(NetworkApplicationData data) throws IOException {
+		if (getSerializableData() == null || getSerializableMode() != SERIALIZABLE_MODE_FRAMED_DELTA)
+			return encode(data);
+		if (deltaEncoder == null)
+			deltaEncoder = new DeltaCodec();
+		// Unchanged snapshots are suppressed rather than sent as a new sequence (see BROADCAST_ON_CHANGE)
+		return deltaEncoder.encode(data, BROADCAST_ON_CHANGE);
+	}
+
+	@Override
+	protected EncodedMessage encodeBroadcast(NetworkApplicationData data) throws IOException {
 		try {
-			clientPool.get(targetIP).sendMessage(data);
+			return encodeState(data);
 		}
-		catch (Exception e) {
-			clientPool.remove(targetIP);
+		catch (IOException e) {
+			encoder = null;
+			throw e;
 		}
 	}
 
-	
+	/**
+	 * Framed multi-platform messages only, as the other modes have no frame kinds
+	 */
+	@Override
+	public boolean isCompressionSupported() {
+		return COMPRESSION_ENABLED && getSerializableData() != null && getSerializableMode() != SERIALIZABLE_MODE_DELIMITED;
+	}
+
+	/**
+	 * Retrieves the client for a host, in order to check its send queue statistics
+	 * @param hostIP target host IP
+	 * @return the client, or null if there is no client for the host
+	 */
+	public TCPClient getClient(String hostIP) {
+		return clientPool.get(hostIP);
+	}
+
+	/**
+	 * Removes the client of a host from the pool, unless it was already replaced by a newer client
+	 * @param ip target host IP
+	 * @param client the client to be removed
+	 * @return true if the client was removed, false otherwise
+	 */
+	public boolean removeClient(String ip, TCPClient client) {
+		return clientPool.remove(ip, client);
+	}
+
 	@Override
-	public synchronized void sendMessageToAllHosts(NetworkApplicationData data) {
-		for (i=0; i<clientPool.getKeyList().size(); i++)
-			if (HostDiscovery.otherHosts.get(clientPool.getKeyList().get(i))!=null && HostDiscovery.otherHosts.get(clientPool.getKeyList().get(i)).isOnLine())
-				sendMessage(HostDiscovery.otherHosts.get(clientPool.getKeyList().get(i)), data);
+	public void dropConnection(String ip) {
+		TCPClient client = clientPool.get(ip);
+		if (client != null && removeClient(ip, client))
+			client.disconnect();
+	}
+
+	/**
+	 * Retrieves a connected client from the pool
+	 * @param targetHost destination host
+	 * @return the client or null if there is no connected client for the host
+	 */
+	protected TCPClient getConnectedClient(Host targetHost) {
+		// retrieve host IP
+		String targetIP = targetHost.getHostIP();
+		if (targetIP==null) {
+			Logger.w("Cannot send!  targetHost IP is null");
+			return null;
+		}
+		// get client from pool
+		TCPClient client = clientPool.get(targetIP);
+		if (client==null) {
+			Logger.e("Client is null");
+			return null;
+		}
+		if (!client.connected) {
+			Logger.w("Client not connected!");
+			return null;
+		}
+		return client;
 	}
 
 
@@ -123,15 +321,16 @@ public class TCPCommunication extends NetworkCommunication implements Runnable{
      * In charge of sending local status to the other hosts periodically
      */
     public void run() {
+    	FixedRateTicker ticker = startBroadcastTicker();
     	while (broadcastRunning) {
-    		if (clientPool.size() > 0)
-    			sendMessageToAllHosts(producer.produceNetworkApplicationData());
         	try {
-        		Thread.sleep(BROADCAST_LOCAL_STATUS_INTERVAL_MS, BROADCAST_LOCAL_STATUS_INTERVAL_NS);
+        		ticker.awaitTick();
         	}
         	catch (Exception e) { 
         		Logger.w(e.getMessage()); 
         	}
+    		if (broadcastRunning)
+    			sendBroadcast(produceBroadcast(clientPool.snapshot()));
         }
     }
 
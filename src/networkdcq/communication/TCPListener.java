@@ -1,12 +1,9 @@
 package networkdcq.communication;
 
 import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.net.ServerSocket;
 
-import networkdcq.NetworkDCQ;
 import networkdcq.util.Logger;
 
 
@@ -15,13 +12,15 @@ public class TCPListener extends TCPNetwork implements Runnable {
             
     /**
      * Creates the TCP ServerSocket
+     * @param communication communication this listener belongs to
      */
-    public TCPListener() {
+    public TCPListener(TCPCommunication communication) {
+    	super(communication);
         try {
-            port = TCP_PORT;
+            port = communication.getRuntime().getTCPPort();
             // Subclasses should not create a new ServerSocket
             if (this.getClass().equals(TCPListener.class))
-            	serverConn = new ServerSocket(port);   
+            	serverConn = new ServerSocket(port, 50, getBindAddress());   
         }
         catch (Exception ex) { 
         	Logger.e(ex.getMessage()); 
@@ -32,7 +31,7 @@ public class TCPListener extends TCPNetwork implements Runnable {
      * Main loop, listens for new connection requests
      */
     public synchronized void run() {
-    	while (listenerRunning) {
+    	while (communication.listenerRunning) {
     		listen();
     	}
     }
@@ -43,7 +42,7 @@ public class TCPListener extends TCPNetwork implements Runnable {
     public void restartServer() {
         try {
                 closeServer();
-                serverConn = new ServerSocket(port);
+                serverConn = new ServerSocket(port, 50, getBindAddress());
         }
         catch (Exception e) { 
         	Logger.e(e.getMessage()); 
@@ -59,15 +58,15 @@ public class TCPListener extends TCPNetwork implements Runnable {
             socket = serverConn.accept();
             OutputStream output = socket.getOutputStream();
             InputStream input = socket.getInputStream();
-            if (NetworkDCQ.getCommunication().getSerializableData() == null) {
-            	toBuffer = new ObjectOutputStream(output);
-            	fromBuffer = new ObjectInputStream(input);
-            	new Thread(new TCPServer(socket, fromBuffer, toBuffer)).start();
+            if (communication.getSerializableData() == null) {
+            	toBuffer = NativeCodec.newOutputStream(output);
+            	fromBuffer = NativeCodec.newInputStream(input);
+            	getRuntime().execute(new TCPServer(communication, socket, fromBuffer, toBuffer));
             }
             else {
             	fromBufferSerializable = input;
             	toBufferSerializable = output;
-            	new Thread(new TCPServer(socket, fromBufferSerializable, toBufferSerializable)).start();
+            	getRuntime().execute(new TCPServer(communication, socket, fromBufferSerializable, toBufferSerializable));
             }
             return true;
         }
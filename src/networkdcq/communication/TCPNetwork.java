@@ -7,10 +7,11 @@ import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 
 
 import networkdcq.NetworkApplicationData;
-import networkdcq.NetworkDCQ;
+import networkdcq.NetworkDCQRuntime;
 import networkdcq.util.Logger;
 import networkdcq.util.NetworkSerializable;
 
@@ -39,6 +40,35 @@ public class TCPNetwork extends TCPCommunication {
     protected OutputStream toBufferSerializable = null;
     /** For reading NetworkSerializable data */
     protected InputStream fromBufferSerializable = null;
+    /** Socket stream, for writing pre-encoded messages */
+    protected OutputStream output = null;
+    
+    /** Reusable frame (header + payload) for framed writes */
+    protected ByteBuffer frameWriteBuffer = null;
+    /** Reusable frame payload for framed reads */
+    protected ByteBuffer frameReadBuffer = null;
+    /** Kind of the last frame read */
+    protected byte frameReadKind = MessageCodec.FRAME_MESSAGE;
+    /** Snapshots received from the host, for applying deltas */
+    protected DeltaCodec deltaDecoder = null;
+    /** Frame compression of this connection, created on first use (see {@link CompressionCodec}) */
+    protected CompressionCodec compression = null;
+    /** Communication this connection belongs to */
+    protected TCPCommunication communication;
+
+    /**
+     * Constructor
+     * @param communication communication this connection belongs to
+     */
+    public TCPNetwork(TCPCommunication communication) {
+    	super(false);
+    	this.communication = communication;
+    }
+
+    @Override
+    public NetworkDCQRuntime getRuntime() {
+    	return communication.getRuntime();
+    }
 
 	/**
      * Writes an object to the stream
@@ -48,11 +78,16 @@ public class TCPNetwork extends TCPCommunication {
     public void write(NetworkApplicationData data) throws IOException {
         try {
         	// Native serialization?
-        	if (NetworkDCQ.getCommunication().getSerializableData() == null) {
+        	if (communication.getSerializableData() == null) {
         		toBuffer.writeObject(data);
-        		toBuffer.flush();
            		toBuffer.reset();
+        		// Flush the reset mark too, so pre-encoded messages (see EncodedMessage) can be interleaved
+        		toBuffer.flush();
         	}
+           	else if (communication.getSerializableMode() != SERIALIZABLE_MODE_DELIMITED) {
+           		// Multi-platform serialization, framed
+           		writeFrame(MessageCodec.FRAME_MESSAGE, (((NetworkSerializable)data).networkSerialize()).getBytes());
+           	}
            	else {
            		// Multi-platform serialization?
            		toBufferSerializable.write((((NetworkSerializable)data).networkSerialize()).getBytes());
@@ -74,8 +109,27 @@ public class TCPNetwork extends TCPCommunication {
     public NetworkApplicationData receive() throws IOException {
         try {
         	// Native serialization?
-        	if (NetworkDCQ.getCommunication().getSerializableData() == null)
+        	if (communication.getSerializableData() == null)
         		return (NetworkApplicationData)fromBuffer.readObject();
+        	else if (communication.getSerializableMode() != SERIALIZABLE_MODE_DELIMITED) {
+        		// Multi-platform serialization, framed
+        		int length = readFrame();
+        		byte[] payload = frameReadBuffer.array();
+        		byte kind = frameReadKind;
+        		if (kind == MessageCodec.FRAME_COMPRESSED) {
+        			if (compression == null)
+        				compression = new CompressionCodec();
+        			length = compression.decompress(payload, length);
+        			payload = compression.getBuffer();
+        			kind = compression.getKind();
+        		}
+        		if (kind == MessageCodec.FRAME_MESSAGE)
+        			return MessageCodec.decode(communication.getSerializableData(), payload, 0, length);
+        		// Local status snapshot, keyframe or delta
+        		if (deltaDecoder == null)
+        			deltaDecoder = new DeltaCodec();
+        		return deltaDecoder.decode(communication.getSerializableData(), kind, payload, length);
+        	}
         	else {
         		// Multi-platform serialization?
     			int inputChar;
@@ -84,7 +138,7 @@ public class TCPNetwork extends TCPCommunication {
     			while ((inputChar = fromBufferSerializable.read()) != NetworkSerializable.VARIABLE_END_OF_VARIABLES && inputChar != -1)
     		      sb.append((char)inputChar);
     			// Return the reconstructed instance 
-    			return (NetworkApplicationData)NetworkDCQ.getCommunication().getSerializableData().networkDeserialize(sb.toString());
+    			return (NetworkApplicationData)communication.getSerializableData().networkDeserialize(sb.toString());
         	}
         }   
         catch (Exception ex) {
@@ -94,6 +148,76 @@ public class TCPNetwork extends TCPCommunication {
     }  
     
 
+    /**
+     * Writes a pre-encoded message to the stream
+     * @param message message encoded by {@link TCPCommunication#encode(NetworkApplicationData)}
+     * @throws IOException in case of socket error
+     */
+    public void write(EncodedMessage message) throws IOException {
+        try {
+        	message.writeTo(output);
+        }
+        catch (Exception ex) { 
+        	Logger.w("Exception writing object:" + ex.getMessage());
+       		throw new IOException("Socket error");
+        }
+    }
+    
+    /**
+     * Writes header and payload with a single write to the stream, reusing the frame buffer
+     * @param kind frame kind
+     * @param payload frame payload
+     * @throws IOException in case of socket error
+     */
+    protected void writeFrame(byte kind, byte[] payload) throws IOException {
+    	int size = MessageCodec.FRAME_HEADER_SIZE + payload.length;
+    	if (frameWriteBuffer == null || frameWriteBuffer.capacity() < size)
+    		frameWriteBuffer = ByteBuffer.allocate(Math.max(size, NIOConnection.READ_BUFFER_SIZE));
+    	frameWriteBuffer.clear();
+    	frameWriteBuffer.putInt(payload.length);
+    	frameWriteBuffer.put(kind);
+    	frameWriteBuffer.put(payload);
+    	toBufferSerializable.write(frameWriteBuffer.array(), 0, size);
+    	toBufferSerializable.flush();
+    }
+    
+    /**
+     * Reads the next frame payload into the reusable frame buffer
+     * @return payload size
+     * @throws IOException in case of socket or stream error
+     */
+    protected int readFrame() throws IOException {
+    	if (frameReadBuffer == null)
+    		frameReadBuffer = ByteBuffer.allocate(NIOConnection.READ_BUFFER_SIZE);
+    	// Header first
+    	readFully(frameReadBuffer.array(), MessageCodec.FRAME_HEADER_SIZE);
+    	int length = frameReadBuffer.getInt(0);
+    	frameReadKind = frameReadBuffer.get(4);
+    	if (length < 0 || length > MessageCodec.MAX_FRAME_SIZE || frameReadKind < MessageCodec.FRAME_MESSAGE || frameReadKind > MessageCodec.FRAME_COMPRESSED)
+    		throw new IOException("Invalid frame");
+    	// Then the payload, in bulk
+    	if (frameReadBuffer.capacity() < length)
+    		frameReadBuffer = ByteBuffer.allocate(length);
+    	readFully(frameReadBuffer.array(), length);
+    	return length;
+    }
+    
+    /**
+     * Reads exactly <code>length</code> bytes from the stream
+     * @param buffer destination
+     * @param length bytes to read
+     * @throws IOException in case of socket error or end of stream
+     */
+    protected void readFully(byte[] buffer, int length) throws IOException {
+    	int offset = 0;
+    	while (offset < length) {
+    		int count = fromBufferSerializable.read(buffer, offset, length - offset);
+    		if (count < 0)
+    			throw new IOException("End of stream");
+    		offset += count;
+    	}
+    }
+    
     /**
      * Closes the server socket 
      */
@@ -9,9 +9,6 @@ import java.net.Socket;
 
 
 import networkdcq.Host;
-import networkdcq.NetworkDCQ;
-import networkdcq.discovery.HostDiscovery;
-import networkdcq.qos.QoSMonitor;
 import networkdcq.qos.QoSMonitorTestMessage;
 import networkdcq.util.Logger;
 
@@ -20,7 +17,8 @@ public class TCPServer extends TCPListener implements Runnable {
 	/**
 	 * Constructor
 	 */
-	public TCPServer(Socket socket, ObjectInputStream fromBuffer, ObjectOutputStream toBuffer) {
+	public TCPServer(TCPCommunication communication, Socket socket, ObjectInputStream fromBuffer, ObjectOutputStream toBuffer) {
+		super(communication);
 		Logger.i("Creating connection to: " + socket.getInetAddress());
 		this.socket = socket;
 		this.fromBuffer = fromBuffer;
@@ -31,7 +29,8 @@ public class TCPServer extends TCPListener implements Runnable {
 	/**
 	 * Constructor
 	 */
-	public TCPServer(Socket socket, InputStream fromBufferSerializable, OutputStream toBufferSerializable) {
+	public TCPServer(TCPCommunication communication, Socket socket, InputStream fromBufferSerializable, OutputStream toBufferSerializable) {
+		super(communication);
 		Logger.i("Creating connection to: " + socket.getInetAddress());
 		this.socket = socket;
 		this.fromBufferSerializable = fromBufferSerializable;
@@ -44,7 +43,7 @@ public class TCPServer extends TCPListener implements Runnable {
 	 */
 	public synchronized void run() {
 		boolean ok = true;
-        while (listenerRunning && ok) {
+        while (communication.listenerRunning && ok) {
             try {
                 // Wait for incoming messages
             	data = receive();
@@ -56,26 +55,24 @@ public class TCPServer extends TCPListener implements Runnable {
                 	// Return object or calculate elapsed loop time
                 	if (((QoSMonitorTestMessage)data).state == QoSMonitorTestMessage.STATE_FROM_SOURCE) {
                 		((QoSMonitorTestMessage)data).state = QoSMonitorTestMessage.STATE_TO_SOURCE;
-                		sendMessage(data.getSourceHost(), data);
+                		communication.sendMessage(data.getSourceHost(), data);
                 	}
                 	else {
                 		// Notify QoS
-                		synchronized (QoSMonitor.LOCK) {
-	                		QoSMonitor.LOCK.notify();
-                		}
+                		getRuntime().getQoS().testMessageReturned();
                 	}
                 	continue;
                 }
                 
                 // Update data to be consumed
-                NetworkDCQ.getCommunication().getConsumer().newData(data);
+                communication.getDispatcher().newData(data);
                 data = null;
             }
             catch (IOException ex) {
                 // Tell the app that the connection with the host is lost, or has too many errors
             	String ip = socket.getInetAddress().toString().substring(1);
-            	NetworkDCQ.getCommunication().getConsumer().byeHost(new Host(ip, false));
-            	HostDiscovery.removeHost(ip);
+            	communication.getDispatcher().byeHost(new Host(ip, false));
+            	getRuntime().removeHost(ip);
             	ok = false;
             }
             catch (Exception e) { 
@@ -88,5 +85,7 @@ public class TCPServer extends TCPListener implements Runnable {
         catch (Exception e) {
         	Logger.e(e.getMessage());
         }
+        if (compression != null)
+        	compression.close();
     }
 }
@@ -0,0 +1,187 @@
+package networkdcq.communication;
+
+/**
+ * Network communication which sends the local status snapshots (broadcast) as UDP datagrams
+ * to every host known by the runtime.  Snapshots supersede each other, so a lost
+ * datagram is simply replaced by the next one instead of delaying it as a lost TCP segment does.
+ * QoS probes and messages sent through <code>sendMessage()</code> or <code>sendMessageToAllHosts()</code>
+ * must arrive, hence they keep using the TCP connections of {@link TCPCommunication}.
+ */
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Random;
+
+import networkdcq.Host;
+import networkdcq.NetworkApplicationData;
+import networkdcq.util.FixedRateTicker;
+import networkdcq.util.IterateableConcurrentHashMap;
+import networkdcq.util.Logger;
+
+public class UDPCommunication extends TCPCommunication {
+
+	/** UDP Port for local status snapshots (default, see {@code NetworkDCQRuntime.setUDPDataPort()}) */
+	public static final int UDP_DATA_PORT = 9997;
+	/** Max datagram size.  Larger snapshots are sent through TCP */
+	public static final int MAX_DATAGRAM_SIZE = 65507;
+	/** Datagram header size: sender session (int) + sequence (int) */
+	public static final int DATAGRAM_HEADER_SIZE = 8;
+
+	/** Snapshots listener */
+	protected UDPDataListener dataListener = null;
+	/** Socket for sending snapshots */
+	protected DatagramSocket dataSocket = null;
+	/** Reusable datagram for sending snapshots */
+	protected DatagramPacket dataPacket = null;
+	/** Target addresses: Host IP - address */
+	protected HashMap<String, InetAddress> addresses = new HashMap<String, InetAddress>();
+	/** This sender session, so that receivers can tell a restart from a stale datagram */
+	protected final int session = new Random().nextInt();
+	/** Sequence of the last sent snapshot */
+	protected int sequence = 0;
+
+	@Override
+	public boolean startService() {
+		// TCP listener for messages that must arrive
+		if (!super.startService())
+			return false;
+		try {
+			dataListener = new UDPDataListener(this, createDataListenerSocket());
+			dataListener.running = true;
+			getRuntime().execute(dataListener);
+			return true;
+		}
+		catch (Exception e) {
+			Logger.e(e.getMessage());
+			return false;
+		}
+	}
+
+	@Override
+	public boolean stopService() {
+		super.stopService();
+		if (dataListener == null)
+			return false;
+		dataListener.stop();
+		dataListener = null;
+		return true;
+	}
+
+	/**
+	 * Creates the socket for receiving snapshots
+	 * @return the socket
+	 * @throws IOException in case of socket error
+	 */
+	protected DatagramSocket createDataListenerSocket() throws IOException {
+		return new DatagramSocket(new InetSocketAddress(getBindAddress(), getRuntime().getUDPDataPort()));
+	}
+
+	/**
+	 * Sends a local status snapshot to every known host, encoded only once
+	 * @param payload the snapshot, encoded by {@link #encodeBroadcast(NetworkApplicationData)}, or null if there is nothing to send
+	 */
+	protected void sendStateToAllHosts(EncodedMessage payload) {
+		if (payload==null)
+			return;
+		try {
+			ByteBuffer datagram = encodeDatagram(payload);
+			if (datagram == null) {
+				// Too large for a datagram
+				sendMessageToAllHosts(payload.getData(), true);
+				return;
+			}
+			if (dataSocket == null)
+				dataSocket = new DatagramSocket(new InetSocketAddress(getBindAddress(), 0));
+			if (dataPacket == null)
+				dataPacket = new DatagramPacket(datagram.array(), datagram.limit());
+			dataPacket.setData(datagram.array(), 0, datagram.limit());
+			broadcastSent(sendDatagram());
+		}
+		catch (Exception e) {
+			Logger.w("Exception sending datagram:" + e.getMessage());
+		}
+	}
+
+	/**
+	 * Sends the prepared datagram to every known host
+	 * @return amount of hosts the datagram was sent to
+	 * @throws IOException in case of socket error
+	 */
+	protected int sendDatagram() throws IOException {
+		int sent = 0;
+		int port = getRuntime().getUDPDataPort();
+		IterateableConcurrentHashMap.Snapshot<String, Host> hosts = getRuntime().getOtherHosts().snapshot();
+		for (int i=0; i<hosts.size(); i++) {
+			Host host = hosts.valueAt(i);
+			if (host==null || !host.isOnLine())
+				continue;
+			InetAddress address = addresses.get(host.getHostIP());
+			if (address == null) {
+				address = InetAddress.getByName(host.getHostIP());
+				addresses.put(host.getHostIP(), address);
+			}
+			dataPacket.setAddress(address);
+			dataPacket.setPort(port);
+			dataSocket.send(dataPacket);
+			sent++;
+		}
+		return sent;
+	}
+
+	/**
+	 * Encodes a snapshot as the payload of a datagram
+	 */
+	@Override
+	protected EncodedMessage encodeBroadcast(NetworkApplicationData data) throws IOException {
+		return new EncodedMessage(data, MessageCodec.encode(getSerializableData(), data));
+	}
+
+	/**
+	 * Builds a snapshot datagram: session + sequence + encoded message
+	 * @param payload snapshot encoded by {@link #encodeBroadcast(NetworkApplicationData)}
+	 * @return the datagram, or null if the snapshot exceeds {@code MAX_DATAGRAM_SIZE}
+	 */
+	protected ByteBuffer encodeDatagram(EncodedMessage payload) {
+		if (DATAGRAM_HEADER_SIZE + payload.size() > MAX_DATAGRAM_SIZE) {
+			Logger.w("Snapshot too large for a datagram, sending through TCP");
+			return null;
+		}
+		ByteBuffer datagram = ByteBuffer.allocate(DATAGRAM_HEADER_SIZE + payload.size());
+		datagram.putInt(session);
+		datagram.putInt(++sequence);
+		datagram.put(payload.getBytes());
+		datagram.flip();
+		return datagram;
+	}
+
+	/**
+	 * @return amount of received datagrams discarded for being stale or duplicated
+	 */
+	public long getStaleDatagrams() {
+		return dataListener == null ? 0 : dataListener.getStaleDatagrams();
+	}
+
+	/** 
+	 * In charge of sending local status to the other hosts periodically, through UDP
+	 */
+	@Override
+	public void run() {
+		IterateableConcurrentHashMap<String, Host> otherHosts = getRuntime().getOtherHosts();
+		FixedRateTicker ticker = startBroadcastTicker();
+		while (broadcastRunning) {
+			try {
+				ticker.awaitTick();
+			}
+			catch (Exception e) { 
+				Logger.w(e.getMessage()); 
+			}
+			if (broadcastRunning)
+				sendStateToAllHosts(produceBroadcast(otherHosts.snapshot()));
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package networkdcq.communication;
+
+/**
+ * Receives local status snapshots sent as datagrams by {@link UDPCommunication}.  Each datagram
+ * carries the sender session and a sequence number, so that late (out of order) or duplicated
+ * snapshots are discarded instead of overwriting newer ones.
+ */
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+import networkdcq.NetworkApplicationData;
+import networkdcq.util.Logger;
+
+public class UDPDataListener implements Runnable {
+
+	/** Communication this listener belongs to */
+	protected NetworkCommunication communication;
+	/** Socket to receive from */
+	protected DatagramSocket socket;
+	/** Listener is running */
+	protected volatile boolean running = false;
+	/** Last accepted datagram for each sender: Host IP - {session, sequence} */
+	protected HashMap<String, int[]> lastSequences = new HashMap<String, int[]>();
+	/** Datagrams discarded for being older than the last accepted one */
+	protected long staleDatagrams = 0;
+
+	/**
+	 * Constructor
+	 * @param communication communication this listener belongs to
+	 * @param socket socket to receive from
+	 */
+	public UDPDataListener(NetworkCommunication communication, DatagramSocket socket) {
+		this.communication = communication;
+		this.socket = socket;
+	}
+
+	/**
+	 * Stops the listener, closing its socket
+	 */
+	public void stop() {
+		running = false;
+		socket.close();
+	}
+
+	/**
+	 * Receives and notifies incoming snapshots
+	 */
+	public void run() {
+		byte[] buffer = new byte[UDPCommunication.MAX_DATAGRAM_SIZE];
+		DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+		String thisHostIP = communication.getRuntime().getThisHost().getHostIP();
+		while (running) {
+			try {
+				packet.setLength(buffer.length);
+				socket.receive(packet);
+				if (packet.getLength() < UDPCommunication.DATAGRAM_HEADER_SIZE)
+					continue;
+				// Omit this host (multicast loopback)
+				String source = packet.getAddress().getHostAddress();
+				if (source.equals(thisHostIP))
+					continue;
+				ByteBuffer header = ByteBuffer.wrap(buffer, 0, UDPCommunication.DATAGRAM_HEADER_SIZE);
+				if (!isNewer(source, header.getInt(), header.getInt()))
+					continue;
+				NetworkApplicationData data = MessageCodec.decode(communication.getSerializableData(), buffer, UDPCommunication.DATAGRAM_HEADER_SIZE, packet.getLength() - UDPCommunication.DATAGRAM_HEADER_SIZE);
+				if (data != null)
+					communication.getDispatcher().newData(data);
+			}
+			catch (Exception e) {
+				if (running)
+					Logger.w(e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Checks whether a datagram is newer than the last one accepted from the same sender
+	 * @param source sender IP
+	 * @param session sender session (changes if the sender restarts)
+	 * @param sequence datagram sequence number
+	 * @return true if the datagram must be processed, false if it is stale
+	 */
+	protected boolean isNewer(String source, int session, int sequence) {
+		int[] last = lastSequences.get(source);
+		if (last == null || last[0] != session) {
+			lastSequences.put(source, new int[] { session, sequence });
+			return true;
+		}
+		// Wrap-around safe comparison
+		if (sequence - last[1] <= 0) {
+			staleDatagrams++;
+			return false;
+		}
+		last[1] = sequence;
+		return true;
+	}
+
+	/**
+	 * @return amount of datagrams discarded for being stale or duplicated
+	 */
+	public long getStaleDatagrams() {
+		return staleDatagrams;
+	}
+}
@@ -0,0 +1,230 @@
+package networkdcq.discovery;
+
+/**
+ * Fixed-layout binary discovery beacon, encoded into and parsed from a caller buffer without allocation.
+ * Layout (big endian):
+ * <pre>
+ *  0  magic        2 bytes  'N' 'D'
+ *  2  version      1 byte
+ *  3  flags        1 byte   (FLAG_ONLINE, FLAG_COMPRESSION)
+ *  4  host ID      4 bytes  IPv4 address of the sender
+ *  8  sequence     4 bytes  increased on every beacon
+ * 12  incarnation  4 bytes  changes every time the sender discovery starts
+ * 16  interval     4 bytes  time until the next beacon of the sender (ms)
+ * </pre>
+ */
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+
+class DiscoveryBeacon {
+
+	/** First magic byte */
+	public static final byte MAGIC_0 = 'N';
+	/** Second magic byte */
+	public static final byte MAGIC_1 = 'D';
+	/** Current layout version */
+	public static final byte VERSION = 2;
+	/** Flag: the sender is online */
+	public static final int FLAG_ONLINE = 0x01;
+	/** Flag: the sender decompresses frames (see {@code CompressionCodec}).  Ignored by older hosts */
+	public static final int FLAG_COMPRESSION = 0x02;
+	/** Offset of the version */
+	protected static final int OFFSET_VERSION = 2;
+	/** Offset of the flags */
+	protected static final int OFFSET_FLAGS = 3;
+	/** Offset of the host ID */
+	protected static final int OFFSET_HOST_ID = 4;
+	/** Offset of the sequence */
+	protected static final int OFFSET_SEQUENCE = 8;
+	/** Offset of the incarnation */
+	protected static final int OFFSET_INCARNATION = 12;
+	/** Offset of the interval */
+	protected static final int OFFSET_INTERVAL = 16;
+	/** Beacon size (bytes) */
+	public static final int SIZE = 20;
+
+	/**
+	 * Writes a beacon at the beginning of the buffer
+	 * @param buf destination, at least {@code SIZE} bytes
+	 * @param hostID IPv4 address of the sender (see {@link #toHostID(String)})
+	 * @param flags sender status and capabilities ({@code FLAG_ONLINE}, {@code FLAG_COMPRESSION})
+	 * @param sequence beacon sequence
+	 * @param incarnation sender incarnation
+	 * @param intervalMS time until the next beacon of the sender (ms)
+	 * @return beacon size
+	 */
+	public static int encode(byte[] buf, int hostID, int flags, int sequence, int incarnation, int intervalMS) {
+		buf[0] = MAGIC_0;
+		buf[1] = MAGIC_1;
+		buf[OFFSET_VERSION] = VERSION;
+		buf[OFFSET_FLAGS] = (byte)flags;
+		writeInt(buf, OFFSET_HOST_ID, hostID);
+		writeInt(buf, OFFSET_SEQUENCE, sequence);
+		writeInt(buf, OFFSET_INCARNATION, incarnation);
+		writeInt(buf, OFFSET_INTERVAL, intervalMS);
+		return SIZE;
+	}
+
+	/**
+	 * @param buf received datagram
+	 * @param length received length
+	 * @return true if the datagram is a beacon of the current version
+	 */
+	public static boolean isValid(byte[] buf, int length) {
+		return length >= SIZE && buf[0] == MAGIC_0 && buf[1] == MAGIC_1 && buf[OFFSET_VERSION] == VERSION;
+	}
+
+	/**
+	 * @param buf a valid beacon
+	 * @return IPv4 address of the sender
+	 */
+	public static int getHostID(byte[] buf) {
+		return readInt(buf, OFFSET_HOST_ID);
+	}
+
+	/**
+	 * @param buf a valid beacon
+	 * @return sender status
+	 */
+	public static boolean isOnLine(byte[] buf) {
+		return (buf[OFFSET_FLAGS] & FLAG_ONLINE) != 0;
+	}
+
+	/**
+	 * @param buf a valid beacon
+	 * @return sender status and capabilities
+	 */
+	public static int getFlags(byte[] buf) {
+		return buf[OFFSET_FLAGS] & 0xFF;
+	}
+
+	/**
+	 * @param buf a valid beacon
+	 * @return beacon sequence
+	 */
+	public static int getSequence(byte[] buf) {
+		return readInt(buf, OFFSET_SEQUENCE);
+	}
+
+	/**
+	 * @param buf a valid beacon
+	 * @return sender incarnation
+	 */
+	public static int getIncarnation(byte[] buf) {
+		return readInt(buf, OFFSET_INCARNATION);
+	}
+
+	/**
+	 * @param buf a valid beacon
+	 * @return time until the next beacon of the sender (ms)
+	 */
+	public static int getInterval(byte[] buf) {
+		return readInt(buf, OFFSET_INTERVAL);
+	}
+
+	/**
+	 * @param buf received datagram, starting at index 0 (absolute reads, the buffer position is not modified)
+	 * @param length received length
+	 * @return true if the datagram is a beacon of the current version
+	 */
+	public static boolean isValid(ByteBuffer buf, int length) {
+		return length >= SIZE && buf.get(0) == MAGIC_0 && buf.get(1) == MAGIC_1 && buf.get(OFFSET_VERSION) == VERSION;
+	}
+
+	/**
+	 * @param buf a valid beacon
+	 * @return IPv4 address of the sender
+	 */
+	public static int getHostID(ByteBuffer buf) {
+		return buf.getInt(OFFSET_HOST_ID);
+	}
+
+	/**
+	 * @param buf a valid beacon
+	 * @return sender status
+	 */
+	public static boolean isOnLine(ByteBuffer buf) {
+		return (buf.get(OFFSET_FLAGS) & FLAG_ONLINE) != 0;
+	}
+
+	/**
+	 * @param buf a valid beacon
+	 * @return sender status and capabilities
+	 */
+	public static int getFlags(ByteBuffer buf) {
+		return buf.get(OFFSET_FLAGS) & 0xFF;
+	}
+
+	/**
+	 * @param buf a valid beacon
+	 * @return beacon sequence
+	 */
+	public static int getSequence(ByteBuffer buf) {
+		return buf.getInt(OFFSET_SEQUENCE);
+	}
+
+	/**
+	 * @param buf a valid beacon
+	 * @return sender incarnation
+	 */
+	public static int getIncarnation(ByteBuffer buf) {
+		return buf.getInt(OFFSET_INCARNATION);
+	}
+
+	/**
+	 * @param buf a valid beacon
+	 * @return time until the next beacon of the sender (ms)
+	 */
+	public static int getInterval(ByteBuffer buf) {
+		return buf.getInt(OFFSET_INTERVAL);
+	}
+
+	/**
+	 * Converts a textual IPv4 address into a host ID
+	 * @param ip IPv4 address (literal, no name resolution is performed)
+	 * @return the host ID
+	 * @throws UnknownHostException if the IP is not a valid IPv4 address
+	 */
+	public static int toHostID(String ip) throws UnknownHostException {
+		if (ip == null || ip.length() == 0 || !Character.isDigit(ip.charAt(0)))
+			throw new UnknownHostException("Invalid IPv4 address: " + ip);
+		byte[] address = InetAddress.getByName(ip).getAddress();
+		if (address.length != 4)
+			throw new UnknownHostException("Invalid IPv4 address: " + ip);
+		return readInt(address, 0);
+	}
+
+	/**
+	 * Converts a host ID into a textual IPv4 address
+	 * @param hostID the host ID
+	 * @return the IPv4 address
+	 */
+	public static String toHostIP(int hostID) {
+		return (hostID >>> 24) + "." + ((hostID >>> 16) & 0xFF) + "." + ((hostID >>> 8) & 0xFF) + "." + (hostID & 0xFF);
+	}
+
+	/**
+	 * Writes a big endian int
+	 * @param buf destination
+	 * @param offset position of the first byte
+	 * @param value the value
+	 */
+	protected static void writeInt(byte[] buf, int offset, int value) {
+		buf[offset] = (byte)(value >>> 24);
+		buf[offset + 1] = (byte)(value >>> 16);
+		buf[offset + 2] = (byte)(value >>> 8);
+		buf[offset + 3] = (byte)value;
+	}
+
+	/**
+	 * Reads a big endian int
+	 * @param buf source
+	 * @param offset position of the first byte
+	 * @return the value
+	 */
+	protected static int readInt(byte[] buf, int offset) {
+		return ((buf[offset] & 0xFF) << 24) | ((buf[offset + 1] & 0xFF) << 16) | ((buf[offset + 2] & 0xFF) << 8) | (buf[offset + 3] & 0xFF);
+	}
+}
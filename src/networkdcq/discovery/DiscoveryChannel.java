@@ -0,0 +1,123 @@
+package networkdcq.discovery;
+
+/**
+ * Non-blocking receive path for discovery beacons: a DatagramChannel joined to the discovery group, reading
+ * into a direct buffer which is parsed in place.  Every wakeup drains all the queued datagrams.
+ * Multicast channels require Java 7 (Android API 24): this class must only be loaded after
+ * {@link UDPListener#isChannelSupported()}.
+ */
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Enumeration;
+
+class DiscoveryChannel {
+
+	/** Channel bound to the discovery port */
+	protected DatagramChannel channel;
+	/** Waits for datagrams */
+	protected Selector selector;
+	/** Group membership */
+	protected MembershipKey membership;
+	/** Receive buffer, reused for every datagram */
+	protected ByteBuffer buffer;
+
+	/**
+	 * Opens the channel and joins the group
+	 * @param group discovery group
+	 * @param port discovery port
+	 * @param localAddress address of the interface to join the group on
+	 * @param bufferSize receive buffer size
+	 * @throws IOException if the channel cannot be opened or the group cannot be joined
+	 */
+	public DiscoveryChannel(InetAddress group, int port, InetAddress localAddress, int bufferSize) throws IOException {
+		NetworkInterface networkInterface = getInterface(localAddress);
+		if (networkInterface == null)
+			throw new IOException("No multicast interface for " + localAddress);
+		try {
+			channel = DatagramChannel.open(StandardProtocolFamily.INET);
+			// Shared with the discovery client, as MulticastSocket does
+			channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+			channel.bind(new InetSocketAddress(port));
+			membership = channel.join(group, networkInterface);
+			channel.configureBlocking(false);
+			selector = Selector.open();
+			channel.register(selector, SelectionKey.OP_READ);
+			buffer = ByteBuffer.allocateDirect(bufferSize);
+		}
+		catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Finds the interface to join the group on
+	 * @param localAddress address of this host
+	 * @return the interface of the address, or else the first multicast capable interface (loopback is the last option), or null
+	 * @throws IOException if the interfaces cannot be listed
+	 */
+	protected static NetworkInterface getInterface(InetAddress localAddress) throws IOException {
+		NetworkInterface networkInterface = NetworkInterface.getByInetAddress(localAddress);
+		if (networkInterface != null)
+			return networkInterface;
+		// Not an interface address (simulated hosts, for example): MulticastSocket uses the default interface
+		NetworkInterface loopback = null;
+		for (Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces(); interfaces != null && interfaces.hasMoreElements(); ) {
+			NetworkInterface candidate = interfaces.nextElement();
+			if (!candidate.isUp() || !candidate.supportsMulticast())
+				continue;
+			if (!candidate.isLoopback())
+				return candidate;
+			loopback = candidate;
+		}
+		return loopback;
+	}
+
+	/**
+	 * Waits for datagrams and processes every queued one
+	 * @param listener processes the beacons
+	 * @param timeoutMS max wait (ms)
+	 * @return processed datagrams
+	 * @throws IOException in case of network error
+	 */
+	public int receive(UDPListener listener, long timeoutMS) throws IOException {
+		if (selector.select(timeoutMS) == 0)
+			return 0;
+		selector.selectedKeys().clear();
+		int received = 0;
+		while (true) {
+			buffer.clear();
+			if (channel.receive(buffer) == null)
+				return received;
+			listener.managePing(buffer, buffer.position());
+			received++;
+		}
+	}
+
+	/**
+	 * Leaves the group and closes the channel
+	 */
+	public void close() {
+		try {
+			if (membership != null)
+				membership.drop();
+			if (selector != null)
+				selector.close();
+			if (channel != null)
+				channel.close();
+		}
+		catch (IOException e) {
+			// Already closed
+		}
+	}
+}
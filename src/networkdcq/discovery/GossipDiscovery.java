@@ -0,0 +1,711 @@
+package networkdcq.discovery;
+
+/**
+ * SWIM-style gossip discovery (Das, Gupta, Motivala), for large groups.  Every protocol period
+ * ({@code DISCOVERY_INTERVAL_MS}) each host probes a single member, chosen round-robin over a shuffled
+ * member list, through unicast UDP.  If the member does not answer, a few other members are asked to
+ * probe it indirectly; if they do not succeed either, the member is suspected, and declared dead if the
+ * suspicion is not refuted in time.  Membership changes (alive, suspect, dead) are piggybacked on the
+ * probes and acks, each one a limited amount of times, so the traffic per host does not depend on
+ * the group size.
+ * <p>
+ * Hosts join by multicasting a {@link DiscoveryBeacon} to the discovery group (and by contacting the
+ * seeds, if any) until they know a member; every member hearing the beacon sends its member list to the
+ * new host.  Beacons are also sent every {@code GOSSIP_ANNOUNCE_INTERVAL_MS}, in order to merge partitions.
+ * <p>
+ * Message layout (big endian): magic 'N' 'G' (2 bytes), version (1), type (1), sequence (4), sender host ID (4),
+ * sender incarnation (4), target host ID (4), update count (1), and then the updates: host ID (4),
+ * incarnation (4), state (1).
+ */
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Random;
+
+import networkdcq.Host;
+import networkdcq.NetworkDCQRuntime;
+import networkdcq.util.Logger;
+
+class GossipDiscovery extends HostDiscovery implements Runnable {
+
+	/** Default UDP port for gossip messages (see {@code NetworkDCQRuntime.setGossipPort()}) */
+	public static final int GOSSIP_PORT = DEFAULT_GOSSIP_PORT;
+	/** Time to wait for the ack of a probe before probing indirectly (ms) */
+	public static int GOSSIP_PROBE_TIMEOUT_MS = 200;
+	/** Members asked to probe indirectly */
+	public static int GOSSIP_INDIRECT_PROBES = 3;
+	/** Suspicion timeout, in protocol periods, multiplied by log10 of the group size (at least 1) */
+	public static int GOSSIP_SUSPICION_MULT = 4;
+	/** Times an update is piggybacked, multiplied by log2 of the group size */
+	public static int GOSSIP_RETRANSMIT_MULT = 3;
+	/** Max updates piggybacked on a message */
+	public static int GOSSIP_MAX_UPDATES = 16;
+	/** Interval between beacons once a member is known (ms).  0 to send beacons only while alone */
+	public static int GOSSIP_ANNOUNCE_INTERVAL_MS = 30000;
+	/** Time dead members are remembered, in order to ignore older gossip about them (ms) */
+	public static int GOSSIP_DEAD_RETENTION_MS = 60000;
+	/** Default seeds: IPs contacted while alone, in addition to the beacon.  See {@link #setSeeds(String[])} */
+	public static String[] GOSSIP_SEEDS = null;
+
+	/** First magic byte */
+	protected static final byte MAGIC_0 = 'N';
+	/** Second magic byte */
+	protected static final byte MAGIC_1 = 'G';
+	/** Current layout version */
+	protected static final byte VERSION = 1;
+	/** Message type: probe, to be answered with an ack */
+	protected static final byte TYPE_PING = 1;
+	/** Message type: probe answer (relayed by the helper for indirect probes) */
+	protected static final byte TYPE_ACK = 2;
+	/** Message type: request to probe the target on behalf of the sender */
+	protected static final byte TYPE_PING_REQ = 3;
+	/** Message type: request of the member list, from a host which knows no member */
+	protected static final byte TYPE_JOIN = 4;
+	/** Message type: member list */
+	protected static final byte TYPE_SYNC = 5;
+	/** Member state: alive */
+	protected static final byte STATE_ALIVE = 0;
+	/** Member state: suspected to be down */
+	protected static final byte STATE_SUSPECT = 1;
+	/** Member state: down */
+	protected static final byte STATE_DEAD = 2;
+	/** Offset of the type */
+	protected static final int OFFSET_TYPE = 3;
+	/** Offset of the sequence */
+	protected static final int OFFSET_SEQUENCE = 4;
+	/** Offset of the sender host ID */
+	protected static final int OFFSET_SENDER = 8;
+	/** Offset of the sender incarnation */
+	protected static final int OFFSET_INCARNATION = 12;
+	/** Offset of the target host ID */
+	protected static final int OFFSET_TARGET = 16;
+	/** Offset of the update count */
+	protected static final int OFFSET_UPDATE_COUNT = 20;
+	/** Header size (bytes) */
+	protected static final int HEADER_SIZE = 21;
+	/** Update size (bytes) */
+	protected static final int UPDATE_SIZE = 9;
+	/** Beacon buffer size */
+	protected static final int BUFFER_SIZE = 64;
+	/** State names, for logging */
+	protected static final String[] STATE_NAMES = { "alive", "suspect", "dead" };
+
+	/**
+	 * A member of the group, as seen by this host
+	 */
+	protected static class Member {
+		/** IPv4 address */
+		protected int hostID;
+		/** Gossip address */
+		protected InetAddress address;
+		/** Latest known incarnation */
+		protected int incarnation;
+		/** A {@code STATE_} constant */
+		protected byte state;
+		/** Last state change (ms) */
+		protected long stateChangeMS;
+		/** Host in the hosts list, while not dead */
+		protected Host host;
+	}
+
+	/**
+	 * A membership change to be piggybacked
+	 */
+	protected static class Update {
+		/** IPv4 address of the member */
+		protected int hostID;
+		/** Incarnation of the member */
+		protected int incarnation;
+		/** A {@code STATE_} constant */
+		protected byte state;
+		/** Times piggybacked */
+		protected int transmissions;
+	}
+
+	/** Discovery is running */
+	protected volatile boolean running = false;
+	/** Seeds of this instance (IPs) */
+	protected String[] seeds = GOSSIP_SEEDS;
+	/** Host ID of this host */
+	protected int thisHostID;
+	/** Incarnation of this host.  Increased to refute suspicions */
+	protected int incarnation;
+	/** Last message sequence */
+	protected int sequence = 0;
+	/** Members by host ID, including the dead ones */
+	protected HashMap<Integer, Member> members = new HashMap<Integer, Member>();
+	/** Members not dead */
+	protected int liveMembers = 0;
+	/** Probe order */
+	protected ArrayList<Member> probeList = new ArrayList<Member>();
+	/** Next position of the probe order */
+	protected int probeIndex = 0;
+	/** Membership changes to be piggybacked, newest first */
+	protected ArrayList<Update> updates = new ArrayList<Update>();
+	/** Indirect probes on behalf of other members: sequence -> origin host ID, origin sequence, start (ms, truncated) */
+	protected HashMap<Integer, int[]> relays = new HashMap<Integer, int[]>();
+	/** Member probed in the current period, or null */
+	protected Member probeTarget = null;
+	/** Sequence of the current probe */
+	protected int probeSequence;
+	/** Start of the current probe (ms) */
+	protected long probeStartMS;
+	/** The current probe was acknowledged */
+	protected boolean probeAcked;
+	/** The current probe was sent to helpers */
+	protected boolean probeIndirect;
+	/** Last beacon (ms) */
+	protected long lastAnnounceMS = 0;
+	/** Unicast socket for gossip messages */
+	protected DatagramSocket socket = null;
+	/** Multicast socket for beacons */
+	protected MulticastSocket beaconSocket = null;
+	/** Discovery group */
+	protected InetAddress group = null;
+	/** Outgoing message */
+	protected byte[] out = new byte[HEADER_SIZE + 255 * UPDATE_SIZE];
+	/** Outgoing packet */
+	protected DatagramPacket outPacket = new DatagramPacket(out, out.length);
+	/** Random member selection */
+	protected Random random = new Random();
+
+	/**
+	 * Starts gossip discovery, creating two threads: one for the protocol and one for the beacons
+	 */
+	public boolean startDiscovery() {
+		try {
+			NetworkDCQRuntime runtime = getRuntime();
+			thisHostID = DiscoveryBeacon.toHostID(runtime.getThisHost().getHostIP());
+			incarnation = (int)System.currentTimeMillis();
+			socket = new DatagramSocket(new InetSocketAddress(runtime.getBindAddress(), runtime.getGossipPort()));
+			group = InetAddress.getByName(runtime.getDiscoveryGroup());
+			beaconSocket = new MulticastSocket(runtime.getDiscoveryPort());
+			// Beacons are sent and received on the interface of the bind address, if any
+			NetworkInterface bindInterface = runtime.getBindInterface();
+			if (bindInterface != null)
+				beaconSocket.setNetworkInterface(bindInterface);
+			beaconSocket.joinGroup(new InetSocketAddress(group, runtime.getDiscoveryPort()), bindInterface);
+			running = true;
+			runtime.execute(new BeaconListener());
+			runtime.execute(this);
+			return true;
+		}
+		catch (Exception e) {
+			Logger.e(e.getMessage());
+			stopDiscovery();
+			return false;
+		}
+	}
+
+	/**
+	 * Stops gossip discovery.  The threads created in <code>startDiscovery()</code> end normally.
+	 */
+	public void stopDiscovery() {
+		running = false;
+		// Unblocks both threads, and releases the ports for a new start
+		if (socket != null)
+			socket.close();
+		if (beaconSocket != null)
+			beaconSocket.close();
+	}
+
+	/**
+	 * Sets the IPs contacted while no member is known, for networks without multicast.  Must be set before starting
+	 * @param seeds IPs of some members of the group, or null
+	 */
+	public void setSeeds(String[] seeds) {
+		this.seeds = seeds;
+	}
+
+	/**
+	 * Protocol main loop: receives gossip messages and runs the protocol periods
+	 */
+	public void run() {
+		byte[] in = new byte[out.length];
+		DatagramPacket packet = new DatagramPacket(in, in.length);
+		long nextPeriodMS = System.currentTimeMillis();
+		try {
+			while (running) {
+				long now = System.currentTimeMillis();
+				long wakeUpMS;
+				synchronized (this) {
+					if (now >= nextPeriodMS) {
+						protocolPeriod(now);
+						nextPeriodMS = Math.max(nextPeriodMS + DISCOVERY_INTERVAL_MS, now + 1);
+					}
+					else if (probeTarget != null && !probeAcked && !probeIndirect && now - probeStartMS >= GOSSIP_PROBE_TIMEOUT_MS)
+						probeIndirectly();
+					wakeUpMS = nextPeriodMS;
+					if (probeTarget != null && !probeAcked && !probeIndirect)
+						wakeUpMS = Math.min(wakeUpMS, probeStartMS + GOSSIP_PROBE_TIMEOUT_MS);
+				}
+				socket.setSoTimeout((int)Math.max(1, wakeUpMS - now));
+				packet.setLength(in.length);
+				try {
+					socket.receive(packet);
+				}
+				catch (SocketTimeoutException e) {
+					continue;
+				}
+				synchronized (this) {
+					handleMessage(in, packet.getLength());
+				}
+			}
+		}
+		catch (IOException e) {
+			if (running)
+				Logger.e(e.getMessage());
+		}
+		finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Ends the current probe, expires suspicions, and starts the next probe
+	 * @param now current time (ms)
+	 */
+	protected void protocolPeriod(long now) {
+		// No ack, even through the helpers
+		if (probeTarget != null && !probeAcked && probeTarget.state == STATE_ALIVE)
+			applyUpdate(probeTarget.hostID, probeTarget.incarnation, STATE_SUSPECT);
+		probeTarget = null;
+
+		// Suspicions not refuted, and dead members no longer needed
+		long suspicionMS = (long)GOSSIP_SUSPICION_MULT * DISCOVERY_INTERVAL_MS * Math.max(1, (int)Math.ceil(Math.log10(liveMembers + 1)));
+		ArrayList<Member> expired = null;
+		for (Iterator<Member> it = members.values().iterator(); it.hasNext(); ) {
+			Member member = it.next();
+			if (member.state == STATE_SUSPECT && now - member.stateChangeMS > suspicionMS) {
+				if (expired == null)
+					expired = new ArrayList<Member>();
+				expired.add(member);
+			}
+			else if (member.state == STATE_DEAD && now - member.stateChangeMS > GOSSIP_DEAD_RETENTION_MS)
+				it.remove();
+		}
+		if (expired != null)
+			for (Member member : expired)
+				applyUpdate(member.hostID, member.incarnation, STATE_DEAD);
+		for (Iterator<int[]> it = relays.values().iterator(); it.hasNext(); )
+			if ((int)now - it.next()[2] > DISCOVERY_INTERVAL_MS)
+				it.remove();
+
+		// Join (or merge partitions)
+		if (liveMembers == 0 || (GOSSIP_ANNOUNCE_INTERVAL_MS > 0 && now - lastAnnounceMS >= GOSSIP_ANNOUNCE_INTERVAL_MS))
+			announce(now);
+
+		// Next probe
+		probeTarget = nextProbeTarget();
+		if (probeTarget == null)
+			return;
+		probeSequence = ++sequence;
+		probeStartMS = now;
+		probeAcked = false;
+		probeIndirect = false;
+		send(TYPE_PING, probeSequence, 0, probeTarget.address, true);
+	}
+
+	/**
+	 * Asks some random members to probe the current target
+	 */
+	protected void probeIndirectly() {
+		probeIndirect = true;
+		int candidates = liveMembers - 1;
+		if (candidates <= 0)
+			return;
+		int helpers = Math.min(GOSSIP_INDIRECT_PROBES, candidates);
+		ArrayList<Member> live = new ArrayList<Member>(liveMembers);
+		for (Member member : members.values())
+			if (member.state != STATE_DEAD && member != probeTarget)
+				live.add(member);
+		Collections.shuffle(live, random);
+		for (int i = 0; i < helpers && i < live.size(); i++)
+			send(TYPE_PING_REQ, probeSequence, probeTarget.hostID, live.get(i).address, true);
+	}
+
+	/**
+	 * Sends the beacon to the discovery group, and a join request to every seed while no member is known
+	 * @param now current time (ms)
+	 */
+	protected void announce(long now) {
+		lastAnnounceMS = now;
+		try {
+			byte[] beacon = new byte[DiscoveryBeacon.SIZE];
+			DiscoveryBeacon.encode(beacon, thisHostID, DiscoveryBeacon.FLAG_ONLINE, sequence, incarnation, liveMembers == 0 ? DISCOVERY_INTERVAL_MS : GOSSIP_ANNOUNCE_INTERVAL_MS);
+			beaconSocket.send(new DatagramPacket(beacon, beacon.length, group, getRuntime().getDiscoveryPort()));
+		}
+		catch (IOException e) {
+			Logger.w(e.getMessage());
+		}
+		String[] currentSeeds = seeds;
+		if (liveMembers > 0 || currentSeeds == null)
+			return;
+		for (String seed : currentSeeds) {
+			try {
+				InetAddress address = InetAddress.getByName(seed);
+				if (!address.equals(InetAddress.getByName(getRuntime().getThisHost().getHostIP())))
+					send(TYPE_JOIN, ++sequence, 0, address, false);
+			}
+			catch (IOException e) {
+				Logger.w(e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Chooses the next member to probe, round-robin over the member list, shuffled on every round
+	 * @return the member, or null if no member is known
+	 */
+	protected Member nextProbeTarget() {
+		for (int attempt = 0; attempt < 2; attempt++) {
+			while (probeIndex < probeList.size()) {
+				Member member = probeList.get(probeIndex++);
+				if (member.state != STATE_DEAD && members.get(member.hostID) == member)
+					return member;
+			}
+			// New round
+			probeList.clear();
+			for (Member member : members.values())
+				if (member.state != STATE_DEAD)
+					probeList.add(member);
+			Collections.shuffle(probeList, random);
+			probeIndex = 0;
+		}
+		return null;
+	}
+
+	/**
+	 * Processes a received gossip message
+	 * @param buf message
+	 * @param length message length
+	 */
+	protected void handleMessage(byte[] buf, int length) {
+		if (length < HEADER_SIZE || buf[0] != MAGIC_0 || buf[1] != MAGIC_1 || buf[2] != VERSION)
+			return;
+		int count = buf[OFFSET_UPDATE_COUNT] & 0xFF;
+		if (length < HEADER_SIZE + count * UPDATE_SIZE)
+			return;
+		byte type = buf[OFFSET_TYPE];
+		int messageSequence = DiscoveryBeacon.readInt(buf, OFFSET_SEQUENCE);
+		int sender = DiscoveryBeacon.readInt(buf, OFFSET_SENDER);
+		int target = DiscoveryBeacon.readInt(buf, OFFSET_TARGET);
+		if (sender == thisHostID)
+			return;
+
+		// The sender is alive
+		Member from = contact(sender, DiscoveryBeacon.readInt(buf, OFFSET_INCARNATION));
+		if (from == null)
+			return;
+		for (int i = 0, offset = HEADER_SIZE; i < count; i++, offset += UPDATE_SIZE)
+			applyUpdate(DiscoveryBeacon.readInt(buf, offset), DiscoveryBeacon.readInt(buf, offset + 4), buf[offset + 8]);
+
+		switch (type) {
+			case TYPE_PING:
+				send(TYPE_ACK, messageSequence, target, from.address, true);
+				break;
+			case TYPE_ACK:
+				if (probeTarget != null && messageSequence == probeSequence)
+					probeAcked = true;
+				else {
+					// Ack of an indirect probe: relay it to the origin
+					int[] relay = relays.remove(messageSequence);
+					Member origin = relay != null ? members.get(relay[0]) : null;
+					if (origin != null)
+						send(TYPE_ACK, relay[1], sender, origin.address, true);
+				}
+				break;
+			case TYPE_PING_REQ:
+				Member probed = members.get(target);
+				if (probed != null && probed.state != STATE_DEAD) {
+					int relaySequence = ++sequence;
+					relays.put(relaySequence, new int[] { sender, messageSequence, (int)System.currentTimeMillis() });
+					send(TYPE_PING, relaySequence, 0, probed.address, true);
+				}
+				break;
+			case TYPE_JOIN:
+				sync(from);
+				break;
+		}
+	}
+
+	/**
+	 * Processes a beacon from the discovery group: the sender learns the member list if it was unknown
+	 * @param hostID sender host ID
+	 * @param senderIncarnation sender incarnation
+	 */
+	protected synchronized void handleBeacon(int hostID, int senderIncarnation) {
+		if (hostID == thisHostID)
+			return;
+		Member member = members.get(hostID);
+		boolean known = member != null && member.state != STATE_DEAD && senderIncarnation == member.incarnation;
+		member = contact(hostID, senderIncarnation);
+		if (member != null && !known)
+			sync(member);
+	}
+
+	/**
+	 * Registers a direct contact with a member, which proves it is alive
+	 * @param hostID member host ID
+	 * @param memberIncarnation incarnation announced by the member
+	 * @return the member, or null if its address is not valid
+	 */
+	protected Member contact(int hostID, int memberIncarnation) {
+		applyUpdate(hostID, memberIncarnation, STATE_ALIVE);
+		Member member = members.get(hostID);
+		if (member == null)
+			return null;
+		if (member.state == STATE_SUSPECT && member.incarnation == memberIncarnation) {
+			// Cleared locally only: the member refutes with a new incarnation when the suspicion reaches it
+			member.state = STATE_ALIVE;
+			member.stateChangeMS = System.currentTimeMillis();
+		}
+		if (member.host != null)
+			member.host.updateHostStatus(true);
+		return member;
+	}
+
+	/**
+	 * Merges a membership change, following the SWIM precedence rules, and disseminates it if new
+	 * @param hostID member host ID
+	 * @param memberIncarnation member incarnation
+	 * @param state a {@code STATE_} constant
+	 */
+	protected void applyUpdate(int hostID, int memberIncarnation, byte state) {
+		if (hostID == thisHostID) {
+			// Refute suspicions about this host
+			if (state != STATE_ALIVE && memberIncarnation - incarnation >= 0) {
+				incarnation = memberIncarnation + 1;
+				enqueue(thisHostID, incarnation, STATE_ALIVE);
+			}
+			return;
+		}
+		Member member = members.get(hostID);
+		if (member == null) {
+			member = new Member();
+			member.hostID = hostID;
+			try {
+				member.address = InetAddress.getByName(DiscoveryBeacon.toHostIP(hostID));
+			}
+			catch (IOException e) {
+				Logger.w(e.getMessage());
+				return;
+			}
+			member.incarnation = memberIncarnation;
+			member.state = STATE_DEAD;
+			// Retained as dead, so that older ALIVE rumours cannot bring it back
+			member.stateChangeMS = System.currentTimeMillis();
+			members.put(hostID, member);
+			if (state != STATE_DEAD)
+				setState(member, state);
+			enqueue(hostID, memberIncarnation, state);
+			return;
+		}
+		int newer = memberIncarnation - member.incarnation;
+		boolean override;
+		switch (state) {
+			case STATE_ALIVE:
+				override = newer > 0;
+				break;
+			case STATE_SUSPECT:
+				override = newer > 0 || (newer == 0 && member.state == STATE_ALIVE);
+				break;
+			default:
+				override = newer >= 0 && member.state != STATE_DEAD;
+		}
+		if (!override)
+			return;
+		member.incarnation = memberIncarnation;
+		setState(member, state);
+		enqueue(hostID, memberIncarnation, state);
+	}
+
+	/**
+	 * Changes the state of a member, updating the hosts list
+	 * @param member the member
+	 * @param state a {@code STATE_} constant
+	 */
+	protected void setState(Member member, byte state) {
+		byte previous = member.state;
+		member.state = state;
+		member.stateChangeMS = System.currentTimeMillis();
+		if (previous != state)
+			Logger.i("Host " + DiscoveryBeacon.toHostIP(member.hostID) + ": " + STATE_NAMES[state]);
+		NetworkDCQRuntime runtime = getRuntime();
+		if (previous == STATE_DEAD && state != STATE_DEAD) {
+			liveMembers++;
+			String ip = DiscoveryBeacon.toHostIP(member.hostID);
+			Host host = runtime.getOtherHosts().get(ip);
+			if (host == null) {
+				host = new Host(ip, true);
+				runtime.getOtherHosts().put(ip, host);
+				member.host = host;
+				runtime.getCommunication().getDispatcher().newHost(host);
+			}
+			else
+				member.host = host;
+		}
+		else if (previous != STATE_DEAD && state == STATE_DEAD) {
+			liveMembers--;
+			Host host = member.host;
+			member.host = null;
+			if (host != null && runtime.getOtherHosts().get(host.getHostIP()) == host) {
+				runtime.removeHost(host.getHostIP());
+				runtime.getCommunication().getDispatcher().byeHost(host);
+			}
+		}
+	}
+
+	/**
+	 * Queues a membership change for dissemination, replacing older changes of the same member
+	 * @param hostID member host ID
+	 * @param memberIncarnation member incarnation
+	 * @param state a {@code STATE_} constant
+	 */
+	protected void enqueue(int hostID, int memberIncarnation, byte state) {
+		for (int i = 0; i < updates.size(); i++)
+			if (updates.get(i).hostID == hostID) {
+				updates.remove(i);
+				break;
+			}
+		Update update = new Update();
+		update.hostID = hostID;
+		update.incarnation = memberIncarnation;
+		update.state = state;
+		updates.add(0, update);
+	}
+
+	/**
+	 * Sends the member list to a member, in as many messages as needed
+	 * @param member the destination
+	 */
+	protected void sync(Member member) {
+		ArrayList<Member> live = new ArrayList<Member>(liveMembers);
+		for (Member known : members.values())
+			if (known.state != STATE_DEAD && known != member)
+				live.add(known);
+		int maxUpdates = Math.min(GOSSIP_MAX_UPDATES, 255);
+		int position = 0;
+		do {
+			int count = Math.min(maxUpdates, live.size() - position);
+			writeHeader(TYPE_SYNC, ++sequence, 0);
+			for (int i = 0; i < count; i++) {
+				Member known = live.get(position++);
+				writeUpdate(i, known.hostID, known.incarnation, known.state);
+			}
+			out[OFFSET_UPDATE_COUNT] = (byte)count;
+			transmit(HEADER_SIZE + count * UPDATE_SIZE, member.address);
+		} while (position < live.size());
+	}
+
+	/**
+	 * Sends a message
+	 * @param type a {@code TYPE_} constant
+	 * @param messageSequence message sequence
+	 * @param target target host ID, or 0
+	 * @param address destination
+	 * @param piggyback true if membership changes must be piggybacked
+	 */
+	protected void send(byte type, int messageSequence, int target, InetAddress address, boolean piggyback) {
+		writeHeader(type, messageSequence, target);
+		int count = 0;
+		if (piggyback) {
+			int limit = GOSSIP_RETRANSMIT_MULT * (32 - Integer.numberOfLeadingZeros(liveMembers + 1));
+			int maxUpdates = Math.min(GOSSIP_MAX_UPDATES, 255);
+			for (int i = 0; i < updates.size() && count < maxUpdates; ) {
+				Update update = updates.get(i);
+				writeUpdate(count++, update.hostID, update.incarnation, update.state);
+				if (++update.transmissions >= limit)
+					updates.remove(i);
+				else
+					i++;
+			}
+		}
+		out[OFFSET_UPDATE_COUNT] = (byte)count;
+		transmit(HEADER_SIZE + count * UPDATE_SIZE, address);
+	}
+
+	/**
+	 * Writes the header of the outgoing message, except the update count
+	 * @param type a {@code TYPE_} constant
+	 * @param messageSequence message sequence
+	 * @param target target host ID, or 0
+	 */
+	protected void writeHeader(byte type, int messageSequence, int target) {
+		out[0] = MAGIC_0;
+		out[1] = MAGIC_1;
+		out[2] = VERSION;
+		out[OFFSET_TYPE] = type;
+		DiscoveryBeacon.writeInt(out, OFFSET_SEQUENCE, messageSequence);
+		DiscoveryBeacon.writeInt(out, OFFSET_SENDER, thisHostID);
+		DiscoveryBeacon.writeInt(out, OFFSET_INCARNATION, incarnation);
+		DiscoveryBeacon.writeInt(out, OFFSET_TARGET, target);
+	}
+
+	/**
+	 * Writes an update of the outgoing message
+	 * @param position update position
+	 * @param hostID member host ID
+	 * @param memberIncarnation member incarnation
+	 * @param state a {@code STATE_} constant
+	 */
+	protected void writeUpdate(int position, int hostID, int memberIncarnation, byte state) {
+		int offset = HEADER_SIZE + position * UPDATE_SIZE;
+		DiscoveryBeacon.writeInt(out, offset, hostID);
+		DiscoveryBeacon.writeInt(out, offset + 4, memberIncarnation);
+		out[offset + 8] = state;
+	}
+
+	/**
+	 * Sends the outgoing message
+	 * @param length message length
+	 * @param address destination
+	 */
+	protected void transmit(int length, InetAddress address) {
+		try {
+			outPacket.setData(out, 0, length);
+			outPacket.setAddress(address);
+			outPacket.setPort(getRuntime().getGossipPort());
+			socket.send(outPacket);
+		}
+		catch (IOException e) {
+			Logger.w(e.getMessage());
+		}
+	}
+
+	/**
+	 * Receives the beacons of the discovery group
+	 */
+	protected class BeaconListener implements Runnable {
+
+		public void run() {
+			byte[] buf = new byte[BUFFER_SIZE];
+			DatagramPacket packet = new DatagramPacket(buf, buf.length);
+			try {
+				while (running) {
+					packet.setLength(buf.length);
+					beaconSocket.receive(packet);
+					if (DiscoveryBeacon.isValid(buf, packet.getLength()))
+						handleBeacon(DiscoveryBeacon.getHostID(buf), DiscoveryBeacon.getIncarnation(buf));
+				}
+			}
+			catch (IOException e) {
+				if (running)
+					Logger.e(e.getMessage());
+			}
+			finally {
+				beaconSocket.close();
+			}
+		}
+	}
+}
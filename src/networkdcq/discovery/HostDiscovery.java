@@ -1,24 +1,49 @@
 package networkdcq.discovery;
 
 import networkdcq.Host;
+import networkdcq.NetworkDCQ;
+import networkdcq.NetworkDCQRuntime;
 import networkdcq.util.IterateableConcurrentHashMap;
 import networkdcq.util.Logger;
 
 public abstract class HostDiscovery {
 
-	/** Status update interval (ms) */
+	/** Status update interval (ms).  Adaptive discovery methods use it right after membership changes */
 	public static int DISCOVERY_INTERVAL_MS = 1000;
+	/** Max status update interval while membership is stable (ms).  Set to DISCOVERY_INTERVAL_MS for a fixed rate */
+	public static int DISCOVERY_MAX_INTERVAL_MS = 4000;
+	/** Status update interval growth while membership is stable */
+	public static double DISCOVERY_BACKOFF_FACTOR = 1.5;
+	/** Status updates sent at DISCOVERY_INTERVAL_MS after a membership change */
+	public static int DISCOVERY_FAST_UPDATES = 5;
 	/** TimeOut validation interval (ms) */
 	public static int DISCOVERY_TIMEOUT_CHECK_INTERVAL_MS = DISCOVERY_INTERVAL_MS * 3;
-	/** TimeOut acceptance limit (ms) */
+	/** TimeOut acceptance limit (ms), for hosts without failure detector */
 	public static int DISCOVERY_TIMEOUT_LIMIT_MS = DISCOVERY_TIMEOUT_CHECK_INTERVAL_MS;	
-	/** Host local */
-	public static Host thisHost = null;
-	/** The other hosts list. IP->Host details */
+	/** Failure detector: phi from which a host is considered down (8 means a 1e-8 chance of a false positive) */
+	public static double DISCOVERY_PHI_THRESHOLD = 8.0;
+	/** Failure detector: ping inter-arrival times kept per host */
+	public static int DISCOVERY_PHI_WINDOW = 100;
+	/** Failure detector: lower bound of the inter-arrival standard deviation (ms) */
+	public static int DISCOVERY_PHI_MIN_STD_DEVIATION_MS = 100;
+	/** Failure detector: ping delay tolerated on top of the mean (ms), for pings every DISCOVERY_INTERVAL_MS.  Scaled with the interval */
+	public static int DISCOVERY_PHI_ACCEPTABLE_PAUSE_MS = DISCOVERY_INTERVAL_MS;
+	/** Default UDP port for discovery */
+	public static final int DEFAULT_DISCOVERY_PORT = 9998;
+	/** Default UDP group for discovery */
+	public static final String DEFAULT_DISCOVERY_GROUP = "230.0.0.1";
+	/** Default UDP port for gossip discovery messages */
+	public static final int DEFAULT_GOSSIP_PORT = 9995;
+	/** Host local (default runtime).  Resolved on first use of {@link #getThisHost()} */
+	private static volatile Host thisHost = null;
+	/** The other hosts list. IP->Host details (default runtime) */
 	public static IterateableConcurrentHashMap<String, Host> otherHosts = new IterateableConcurrentHashMap<String, Host>();
 	/** No network constant */
 	public static String NO_NETWORK_IP = "No network detected";
 	
+	/** Runtime this instance belongs to */
+	protected NetworkDCQRuntime runtime = null;
+	
 	/**
 	 * Start the discovery method for finding hosts
 	 * Subclasses must periodically update otherHosts data
@@ -32,22 +57,47 @@ public abstract class HostDiscovery {
 	
 
 	/**
-	 * Set this host IP
+	 * Retrieves this host, enumerating the network interfaces on first use only
+	 * @return this host (see {@link #resolveLocalHost()})
+	 */
+	public static Host getThisHost() {
+		Host host = thisHost;
+		if (host != null)
+			return host;
+		synchronized (HostDiscovery.class) {
+			if (thisHost == null)
+				thisHost = resolveLocalHost();
+			return thisHost;
+		}
+	}
+
+	/**
+	 * Retrieves this host without resolving it, e.g. for logging
+	 * @return this host, or null if {@link #getThisHost()} was not called yet
+	 */
+	public static Host getResolvedThisHost() {
+		return thisHost;
+	}
+	
+	/**
+	 * Obtains this host from the network interfaces
+	 * @return this host, online, or an offline host with IP {@code NO_NETWORK_IP} if there is no network connection
 	 */
-	static {
+	public static Host resolveLocalHost() {
 		// Get IPv4 IP
-		thisHost = Host.getLocalHostAddresAndIP();
-		if (thisHost == null || thisHost.getHostIP() == null || thisHost.getHostIP().length() == 0) {
-			thisHost = new Host(NO_NETWORK_IP, false); 
+		Host localHost = Host.getLocalHostAddresAndIP();
+		if (localHost == null || localHost.getHostIP() == null || localHost.getHostIP().length() == 0) {
+			localHost = new Host(NO_NETWORK_IP, false); 
 			Logger.w(NO_NETWORK_IP);
 		}
 		// Initially conected (if there is network connection)
-		if (!NO_NETWORK_IP.equals(thisHost.getHostIP()))
-				thisHost.setOnLine(true);
+		if (!NO_NETWORK_IP.equals(localHost.getHostIP()))
+				localHost.setOnLine(true);
+		return localHost;
 	}
 	
 	/**
-	 * Removes a host from de remote hosts list
+	 * Removes a host from de remote hosts list (default runtime)
 	 * @param ip the host IP
 	 */
 	public static void removeHost(String ip) {
@@ -55,10 +105,27 @@ public abstract class HostDiscovery {
 	}
 	
 	
+	/**
+	 * Default Getter
+	 * @return the runtime this instance belongs to, or the default runtime if not set
+	 */
+	public NetworkDCQRuntime getRuntime() {
+		return runtime != null ? runtime : NetworkDCQ.getRuntime();
+	}
+
+	/**
+	 * Default Setter
+	 * @param runtime the runtime this instance belongs to
+	 */
+	public void setRuntime(NetworkDCQRuntime runtime) {
+		this.runtime = runtime;
+	}
+	
 	@Override
 	public String toString() {
-		if (thisHost != null && thisHost.getHostIP() != null)
-			return thisHost.getHostIP();
+		Host localHost = getRuntime().getThisHost();
+		if (localHost != null && localHost.getHostIP() != null)
+			return localHost.getHostIP();
 		return "";
 	}
 }
@@ -4,6 +4,8 @@ public class HostDiscoveryFactory {
 	
 	/** Host discovery through UDP Sockets */
 	public static final int DISCOVERY_METHOD_UDP = 1;
+	/** Host discovery through SWIM-style gossip over UDP, for large groups */
+	public static final int DISCOVERY_METHOD_GOSSIP = 2;
 	/** Selected host discovery implementation instance */
 	private static HostDiscovery instance = null;
 
@@ -16,21 +18,30 @@ public class HostDiscoveryFactory {
 	}
 	
 	/**
-	 * Factory for host discovery methods
+	 * Factory for host discovery methods.  Always returns the same instance, which is used by the default runtime
 	 * @param method identifier for default host discovery method
 	 * @return an instance of the discovery method selected, or null otherwise
 	 */
 	public static HostDiscovery getHostDiscovery(int method) {
-		if (instance != null)
-			return instance;
+		if (instance == null)
+			instance = createHostDiscovery(method);
+		return instance;
+	}
+
+	/**
+	 * Creates a new host discovery instance, for a new {@code NetworkDCQRuntime}
+	 * @param method identifier for host discovery method
+	 * @return a new instance of the discovery method selected, or null otherwise
+	 */
+	public static HostDiscovery createHostDiscovery(int method) {
 		switch (method) {
 			case DISCOVERY_METHOD_UDP:
-				instance = new UDPDiscovery(); 
-				break;
+				return new UDPDiscovery(); 
+			case DISCOVERY_METHOD_GOSSIP:
+				return new GossipDiscovery();
 			default:
 				return null;
 		}
-		return instance;
 	}
 
 }
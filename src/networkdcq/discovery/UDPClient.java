@@ -4,29 +4,49 @@ import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.MulticastSocket;
 
+import networkdcq.Host;
 import networkdcq.util.Logger;
 
 
 
 class UDPClient extends UDPDiscovery implements Runnable {
 	
+	/** Discovery this client belongs to */
+	protected UDPDiscovery discovery;
+	/** Local IP the host ID was computed from */
+	protected String hostIP = null;
+	/** Host ID of this host */
+	protected int hostID;
+	/** Beacon sequence */
+	protected int sequence = 0;
+	
+	/**
+	 * Constructor
+	 * @param discovery discovery this client belongs to
+	 */
+	public UDPClient(UDPDiscovery discovery) {
+		this.discovery = discovery;
+		this.runtime = discovery.getRuntime();
+	}
+	
 	/**
-	 * Discovery client main loop.  Send a status broadcast message periodically.  
+	 * Discovery client main loop.  Send a status broadcast message periodically, more often after membership changes.  
 	 */
 	public void run() {
 		
         try {
         	// Get UDP group and socket 
-        	group = InetAddress.getByName(UDP_GROUP);
-            socket = new MulticastSocket(UDP_PORT);
+        	group = InetAddress.getByName(runtime.getDiscoveryGroup());
+            socket = new MulticastSocket(runtime.getDiscoveryPort());
         	
-        	while (running) {
+        	while (discovery.running) {
 
         		// Send current status
-	    		sendPing();
+        		long sentMS = System.currentTimeMillis();
+	    		sendPing(discovery.nextBeaconInterval());
 
 	            // Sleep for a while and resend status
-                Thread.sleep(DISCOVERY_INTERVAL_MS);
+	    		discovery.awaitNextBeacon(sentMS);
 	    	}
         	
         	// Close socket
@@ -40,17 +60,25 @@ class UDPClient extends UDPDiscovery implements Runnable {
 	}
 	
 	/**
-	 * Sends datagram with host information (IP-Active(Y/N))
+	 * Sends a beacon with host information (see {@link DiscoveryBeacon}), reusing the buffer and the packet
+	 * @param intervalMS time until the next beacon (ms)
 	 * @throws Exception
 	 */
-	protected void sendPing() throws Exception {
+	protected void sendPing(int intervalMS) throws Exception {
 		// Send current status
-        buf = (thisHost.getHostIP() + DATAGRAM_FIELD_SPLIT + (thisHost.isOnLine()?"Y":"N") + DATAGRAM_FIELD_SPLIT).getBytes();
+		Host localHost = runtime.getThisHost();
+		if (hostIP != localHost.getHostIP()) {
+			hostID = DiscoveryBeacon.toHostID(localHost.getHostIP());
+			hostIP = localHost.getHostIP();
+		}
+		int flags = localHost.isOnLine() ? DiscoveryBeacon.FLAG_ONLINE : 0;
+		if (runtime.getCommunication() != null && runtime.getCommunication().isCompressionSupported())
+			flags |= DiscoveryBeacon.FLAG_COMPRESSION;
+		int length = DiscoveryBeacon.encode(buf, hostID, flags, sequence++, discovery.incarnation, intervalMS);
         if (packet==null)
-        	packet = new DatagramPacket(buf, buf.length, group, UDP_PORT);
-        packet.setData(buf);
+        	packet = new DatagramPacket(buf, length, group, runtime.getDiscoveryPort());
+        packet.setLength(length);
         socket.send(packet);
 	}
 	
 }
-
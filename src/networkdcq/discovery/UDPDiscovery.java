@@ -3,23 +3,38 @@ package networkdcq.discovery;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.MulticastSocket;
+import java.util.ArrayList;
 
 import networkdcq.Host;
-import networkdcq.NetworkDCQ;
+import networkdcq.NetworkDCQRuntime;
 import networkdcq.util.Logger;
+import networkdcq.util.PhiAccrualFailureDetector;
+import networkdcq.util.TimerWheel;
 
 class UDPDiscovery extends HostDiscovery implements Runnable {
 
-	/** UDP Port */
-	public static final int UDP_PORT = 9998;
-	/** UDP Group */
-	protected static final String UDP_GROUP = "230.0.0.1";
-	/** Field Separator */
-	protected static final String DATAGRAM_FIELD_SPLIT = ":..:";
+	/** UDP Port (default, see {@code NetworkDCQRuntime.setDiscoveryPort()}) */
+	public static final int UDP_PORT = DEFAULT_DISCOVERY_PORT;
+	/** UDP Group (default, see {@code NetworkDCQRuntime.setDiscoveryGroup()}) */
+	protected static final String UDP_GROUP = DEFAULT_DISCOVERY_GROUP;
+	/** Host timeout precision (ms) */
+	public static int DISCOVERY_TIMEOUT_TICK_MS = 100;
+	/** Host timeout wheel slots */
+	public static int DISCOVERY_TIMEOUT_WHEEL_SLOTS = 256;
+	/** Receive the beacons through a DatagramChannel and a direct buffer, when supported (Java 7, Android API 24) */
+	public static boolean DISCOVERY_USE_CHANNEL = true;
 	/** Buffer size */
 	protected static final int BUFFER_SIZE = 64;
 	/** Discovery is running */
-	protected static boolean running = false;
+	protected volatile boolean running = false;
+	/** Incarnation announced in the beacons, renewed on every start */
+	protected int incarnation = 0;
+	/** Current interval between beacons (ms), see {@link #nextBeaconInterval()} */
+	protected int beaconIntervalMS = DISCOVERY_INTERVAL_MS;
+	/** Beacons left at {@code DISCOVERY_INTERVAL_MS} before backing off */
+	protected int fastBeacons = DISCOVERY_FAST_UPDATES;
+	/** Guards the beacon interval, and wakes up the client on membership changes */
+	protected final Object beaconLock = new Object();
 	/** Status data */
 	protected DatagramPacket packet = null;
 	/** Status to be sent/received */
@@ -28,25 +43,26 @@ class UDPDiscovery extends HostDiscovery implements Runnable {
 	protected InetAddress group = null;
 	/** Broadcast to other hosts */ 
 	protected MulticastSocket socket = null;
+	/** Host timeouts, re-armed lazily: pings only update {@code Host.lastPing} */
+	protected TimerWheel<Host> timeouts = new TimerWheel<Host>(DISCOVERY_TIMEOUT_TICK_MS, DISCOVERY_TIMEOUT_WHEEL_SLOTS);
 	
 	/**
 	 * Starts UDP host discovery, creating two threads: one for the server and one for the client
 	 */
 	public boolean startDiscovery() {
 		running = true;
+		incarnation = (int)System.currentTimeMillis();
+		timeouts.clear();
+		membershipChanged();
 		
 		// Listener
-        UDPListener listener = new UDPListener();
-        Thread threadA = new Thread(listener);
-        threadA.start();
+        getRuntime().execute(new UDPListener(this));
         
         // Client
-        UDPClient client = new UDPClient();
-        Thread threadB = new Thread(client);
-        threadB.start();
+        getRuntime().execute(new UDPClient(this));
         
         // Host timeOut validator
-        new Thread(this).start();
+        getRuntime().execute(this);
         return true;
 	}
 	
@@ -55,21 +71,125 @@ class UDPDiscovery extends HostDiscovery implements Runnable {
 	 */
 	public void stopDiscovery() {
 		running = false;
+		synchronized (beaconLock) {
+			beaconLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Goes back to {@code DISCOVERY_INTERVAL_MS} beacons, after a host appears, restarts or goes missing.
+	 * A client waiting for a longer interval sends its next beacon right away
+	 */
+	protected void membershipChanged() {
+		synchronized (beaconLock) {
+			fastBeacons = DISCOVERY_FAST_UPDATES;
+			if (beaconIntervalMS > DISCOVERY_INTERVAL_MS) {
+				beaconIntervalMS = DISCOVERY_INTERVAL_MS;
+				beaconLock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Computes the interval until the beacon after the one being sent: {@code DISCOVERY_INTERVAL_MS} after
+	 * membership changes, and then growing by {@code DISCOVERY_BACKOFF_FACTOR} up to {@code DISCOVERY_MAX_INTERVAL_MS}
+	 * @return the interval (ms), announced in the beacon
+	 */
+	protected int nextBeaconInterval() {
+		synchronized (beaconLock) {
+			if (fastBeacons > 0)
+				fastBeacons--;
+			else
+				beaconIntervalMS = (int)Math.min(Math.max(DISCOVERY_MAX_INTERVAL_MS, DISCOVERY_INTERVAL_MS), beaconIntervalMS * DISCOVERY_BACKOFF_FACTOR);
+			return beaconIntervalMS;
+		}
+	}
+
+	/**
+	 * Waits until the next beacon is due, or the membership changes
+	 * @param sentMS time of the last beacon (ms)
+	 * @throws InterruptedException
+	 */
+	protected void awaitNextBeacon(long sentMS) throws InterruptedException {
+		synchronized (beaconLock) {
+			long waitMS;
+			while (running && (waitMS = sentMS + beaconIntervalMS - System.currentTimeMillis()) > 0)
+				beaconLock.wait(waitMS);
+		}
+	}
+
+	/**
+	 * Starts tracking the timeout of a host added to the hosts list
+	 * @param host the host
+	 * @param intervalMS beacon interval announced by the host (ms)
+	 */
+	protected void watch(Host host, int intervalMS) {
+		if (host.getFailureDetector() == null)
+			host.setFailureDetector(new PhiAccrualFailureDetector(DISCOVERY_PHI_WINDOW, intervalMS, DISCOVERY_PHI_MIN_STD_DEVIATION_MS, getAcceptablePause(intervalMS)));
+		else
+			host.getFailureDetector().reset(intervalMS, getAcceptablePause(intervalMS));
+		timeouts.schedule(host, getDeadline(host));
+	}
+
+	/**
+	 * Adapts the failure detector of a host to the beacon interval it announced
+	 * @param host the host
+	 * @param intervalMS interval announced by the host (ms)
+	 */
+	protected void intervalChanged(Host host, int intervalMS) {
+		PhiAccrualFailureDetector detector = host.getFailureDetector();
+		if (detector != null)
+			detector.reset(intervalMS, getAcceptablePause(intervalMS));
+	}
+
+	/**
+	 * @param intervalMS beacon interval (ms)
+	 * @return {@code DISCOVERY_PHI_ACCEPTABLE_PAUSE_MS}, scaled from {@code DISCOVERY_INTERVAL_MS} to the interval
+	 */
+	protected int getAcceptablePause(int intervalMS) {
+		return (int)((long)DISCOVERY_PHI_ACCEPTABLE_PAUSE_MS * intervalMS / Math.max(1, DISCOVERY_INTERVAL_MS));
+	}
+
+	/**
+	 * Computes when a host must be considered down if no pings arrive
+	 * @param host the host
+	 * @return the time its suspicion reaches {@code DISCOVERY_PHI_THRESHOLD}, or its last ping plus {@code DISCOVERY_TIMEOUT_LIMIT_MS} without failure detector
+	 */
+	protected long getDeadline(Host host) {
+		PhiAccrualFailureDetector detector = host.getFailureDetector();
+		if (detector == null)
+			return host.getLastPing() + DISCOVERY_TIMEOUT_LIMIT_MS;
+		return detector.getLastHeartbeatMS() + detector.getTimeoutMS(DISCOVERY_PHI_THRESHOLD);
 	}
 
 	/**
-	 * In charge of verifying hosts timeOuts
+	 * In charge of verifying hosts timeOuts.  Every tick, only the hosts whose timeout is due are checked:
+	 * hosts pinged meanwhile (or whose ping jitter grew) are scheduled again at their new deadline, the others are removed
 	 */
 	public synchronized void run() {
+		NetworkDCQRuntime runtime = getRuntime();
+		ArrayList<Host> expired = new ArrayList<Host>();
 		while (running) {
-			for (Host host : otherHosts.getValueList()) {
-				if (System.currentTimeMillis() - host.getLastPing() > DISCOVERY_TIMEOUT_LIMIT_MS) {
-					HostDiscovery.removeHost(host.getHostIP());
-					NetworkDCQ.getCommunication().getConsumer().byeHost(host);
+			long now = System.currentTimeMillis();
+			timeouts.expire(now, expired);
+			for (int i = 0; i < expired.size(); i++) {
+				Host host = expired.get(i);
+				// Already removed
+				if (runtime.getOtherHosts().get(host.getHostIP()) != host)
+					continue;
+				long deadline = getDeadline(host);
+				if (deadline > now) {
+					timeouts.schedule(host, deadline);
+					continue;
 				}
+				Logger.i("Host caido:" + host.getHostIP() + " (" + (now - host.getLastPing()) + "ms sin pings)");
+				runtime.removeHost(host.getHostIP());
+				membershipChanged();
+				runtime.getCommunication().getDispatcher().byeHost(host);
 			}
+			expired.clear();
         	try {
-        		Thread.sleep(DISCOVERY_TIMEOUT_CHECK_INTERVAL_MS);
+        		Thread.sleep(timeouts.getTickMS());
         	}
         	catch (Exception e) { 
         		Logger.w(e.getMessage()); 
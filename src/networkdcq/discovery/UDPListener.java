@@ -4,34 +4,75 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.MulticastSocket;
+import java.nio.ByteBuffer;
 
 
 import networkdcq.Host;
-import networkdcq.NetworkDCQ;
+import networkdcq.util.IterateableConcurrentHashMap;
 import networkdcq.util.Logger;
 
 class UDPListener extends UDPDiscovery implements Runnable {
 
-	/** Datagram Splitted parts */
-	String[] values;
+	/** Initial capacity of the host ID table (power of two) */
+	protected static final int HOST_TABLE_INITIAL_CAPACITY = 64;
+
+	/** Discovery this listener belongs to */
+	protected UDPDiscovery discovery;
+	/** Host ID of this host */
+	protected int thisHostID;
+	/** Host ID table (open addressing): host IDs */
+	protected int[] tableIDs = new int[HOST_TABLE_INITIAL_CAPACITY];
+	/** Host ID table: hosts, null for free slots */
+	protected Host[] tableHosts = new Host[HOST_TABLE_INITIAL_CAPACITY];
+	/** Host ID table: last received sequence */
+	protected int[] tableSequences = new int[HOST_TABLE_INITIAL_CAPACITY];
+	/** Host ID table: last received incarnation */
+	protected int[] tableIncarnations = new int[HOST_TABLE_INITIAL_CAPACITY];
+	/** Host ID table: last received beacon interval */
+	protected int[] tableIntervals = new int[HOST_TABLE_INITIAL_CAPACITY];
+	/** Host ID table: used slots */
+	protected int tableSize = 0;
+	
+	/**
+	 * Constructor
+	 * @param discovery discovery this listener belongs to
+	 */
+	public UDPListener(UDPDiscovery discovery) {
+		this.discovery = discovery;
+		this.runtime = discovery.getRuntime();
+	}
 	
 	/**
 	 * Discovery server main loop.  Receives and processes status messages periodically.
 	 */
 	public void run() {
 		try {
-			socket = new MulticastSocket(UDP_PORT);
-			group = InetAddress.getByName(UDP_GROUP);
+			thisHostID = DiscoveryBeacon.toHostID(runtime.getThisHost().getHostIP());
+			group = InetAddress.getByName(runtime.getDiscoveryGroup());
+			if (DISCOVERY_USE_CHANNEL && isChannelSupported()) {
+				DiscoveryChannel channel = openChannel();
+				if (channel != null) {
+					try {
+						while (discovery.running)
+							channel.receive(this, DISCOVERY_INTERVAL_MS);
+					}
+					finally {
+						channel.close();
+					}
+					return;
+				}
+			}
+			socket = new MulticastSocket(runtime.getDiscoveryPort());
 			socket.joinGroup(group);
 
-			while (running) {
+			while (discovery.running) {
 				// Receive datagramas
 				if (packet==null)
 					packet = new DatagramPacket(buf, buf.length);
+				packet.setLength(buf.length);
 			    socket.receive(packet);
 
-			    String received = new String(packet.getData());
-			    managePing(received);
+			    managePing(packet.getData(), packet.getLength());
 			}
 			socket.leaveGroup(group);
 			socket.close();
@@ -41,30 +82,185 @@ class UDPListener extends UDPDiscovery implements Runnable {
 		}
 
 	}
+
+	/**
+	 * @return true if multicast DatagramChannels are available (Java 7, Android API 24)
+	 */
+	protected static boolean isChannelSupported() {
+		try {
+			Class.forName("java.nio.channels.MulticastChannel");
+			return true;
+		}
+		catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Opens the discovery channel, joining the group on the interface of this host
+	 * @return the channel, or null if it could not be opened (the MulticastSocket is used instead)
+	 */
+	protected DiscoveryChannel openChannel() {
+		try {
+			return new DiscoveryChannel(group, runtime.getDiscoveryPort(), InetAddress.getByName(runtime.getThisHost().getHostIP()), BUFFER_SIZE);
+		}
+		catch (IOException e) {
+			Logger.w("Discovery channel not available: " + e.getMessage());
+			return null;
+		}
+	}
 	
 	/**
-	 * Received datagramas processing.  Updates hosts list.
-	 * @param received String containing IP:..:onLine(Y/N)
+	 * Received datagramas processing
+	 * @param data received datagram, a {@link DiscoveryBeacon}
+	 * @param length received length
 	 */
-	protected void managePing(String received) {
-		// Parse the datagram: values[0]=IP, values[1]=onLine 
-	    values = received.split(DATAGRAM_FIELD_SPLIT);
-	    
-	    // Omit this host
-	    if (thisHost.getHostIP().equals(values[0]))
-	    	return;
-	    
+	protected void managePing(byte[] data, int length) {
+		// Omit other datagrams and this host
+		if (!DiscoveryBeacon.isValid(data, length))
+			return;
+		int hostID = DiscoveryBeacon.getHostID(data);
+		if (hostID == thisHostID)
+			return;
+		managePing(hostID, DiscoveryBeacon.getFlags(data), DiscoveryBeacon.getSequence(data), DiscoveryBeacon.getIncarnation(data), DiscoveryBeacon.getInterval(data));
+	}
+
+	/**
+	 * Received datagramas processing, parsing the beacon in place
+	 * @param data received datagram, a {@link DiscoveryBeacon} starting at index 0
+	 * @param length received length
+	 */
+	protected void managePing(ByteBuffer data, int length) {
+		// Omit other datagrams and this host
+		if (!DiscoveryBeacon.isValid(data, length))
+			return;
+		int hostID = DiscoveryBeacon.getHostID(data);
+		if (hostID == thisHostID)
+			return;
+		managePing(hostID, DiscoveryBeacon.getFlags(data), DiscoveryBeacon.getSequence(data), DiscoveryBeacon.getIncarnation(data), DiscoveryBeacon.getInterval(data));
+	}
+
+	/**
+	 * Beacon processing.  Updates hosts list.  Known hosts are processed without allocation
+	 * @param hostID IPv4 address of the sender
+	 * @param flags sender status and capabilities (see {@link DiscoveryBeacon})
+	 * @param sequence beacon sequence
+	 * @param incarnation sender incarnation
+	 * @param interval time until the next beacon of the sender (ms)
+	 */
+	protected void managePing(int hostID, int flags, int sequence, int incarnation, int interval) {
+	    boolean onLine = (flags & DiscoveryBeacon.FLAG_ONLINE) != 0;
+	    boolean compression = (flags & DiscoveryBeacon.FLAG_COMPRESSION) != 0;
 	    // Is the host already included in the list?
-	    if (otherHosts.get(values[0])==null) {
-	    	Host host = new Host(values[0], "Y".equals(values[1])?true:false);
-	    	otherHosts.put(values[0], host);
-	    	Logger.i("Agregado host:" + host.getHostIP());
-	    	NetworkDCQ.getCommunication().getConsumer().newHost(host);
+	    IterateableConcurrentHashMap<String, Host> hosts = runtime.getOtherHosts();
+	    int slot = findSlot(hostID);
+	    Host known = tableHosts[slot];
+	    if (known == null || hosts.get(known.getHostIP()) != known) {
+	    	// First beacon of the host, or removed by the timeout validator
+	    	String ip = known != null ? known.getHostIP() : DiscoveryBeacon.toHostIP(hostID);
+	    	Host host = hosts.get(ip);
+	    	if (host == null) {
+	    		host = new Host(ip, onLine);
+	    		host.setCompressionSupported(compression);
+	    		hosts.put(host.getHostIP(), host);
+	    		Logger.i("Agregado host:" + host.getHostIP());
+	    		discovery.membershipChanged();
+	    		runtime.getCommunication().getDispatcher().newHost(host);
+	    	}
+	    	else {
+	    		host.updateHostStatus(onLine);
+	    		host.setCompressionSupported(compression);
+	    	}
+	    	discovery.watch(host, interval);
+	    	store(slot, hostID, host, sequence, incarnation, interval);
+	    	return;
 	    }
-	    else {
-	    	// Update host status
-	    	otherHosts.get(values[0]).updateHostStatus("Y".equals(values[1])?true:false);
+	    if (incarnation != tableIncarnations[slot]) {
+	    	// The host restarted: its connections are no longer valid
+	    	Logger.i("Host reiniciado:" + known.getHostIP());
+	    	known.updateHostStatus(onLine);
+	    	known.setCompressionSupported(compression);
+	    	discovery.intervalChanged(known, interval);
+	    	store(slot, hostID, known, sequence, incarnation, interval);
+	    	discovery.membershipChanged();
+	    	runtime.getCommunication().dropConnection(known.getHostIP());
+	    	runtime.getCommunication().getDispatcher().newHost(known);
+	    	return;
+	    }
+	    // Omit delayed or duplicated beacons
+	    if (sequence - tableSequences[slot] <= 0)
+	    	return;
+    	// Update host status
+	    tableSequences[slot] = sequence;
+	    known.updateHostStatus(onLine);
+	    known.setCompressionSupported(compression);
+	    if (interval != tableIntervals[slot]) {
+	    	tableIntervals[slot] = interval;
+	    	discovery.intervalChanged(known, interval);
 	    }
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Finds the slot of a host ID in the table
+	 * @param hostID the host ID
+	 * @return the slot holding the host ID, or the free slot where it must be stored
+	 */
+	protected int findSlot(int hostID) {
+		int mask = tableIDs.length - 1;
+		int hash = hostID * 0x9E3779B9;
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		while (tableHosts[slot] != null && tableIDs[slot] != hostID)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	/**
+	 * Stores a host in the table, growing it if needed
+	 * @param slot slot returned by {@link #findSlot(int)}
+	 * @param hostID the host ID
+	 * @param host the host
+	 * @param sequence last received sequence
+	 * @param incarnation last received incarnation
+	 * @param interval last received beacon interval
+	 */
+	protected void store(int slot, int hostID, Host host, int sequence, int incarnation, int interval) {
+		if (tableHosts[slot] == null) {
+			if (++tableSize * 2 > tableIDs.length) {
+				grow();
+				slot = findSlot(hostID);
+			}
+		}
+		tableIDs[slot] = hostID;
+		tableHosts[slot] = host;
+		tableSequences[slot] = sequence;
+		tableIncarnations[slot] = incarnation;
+		tableIntervals[slot] = interval;
+	}
+
+	/**
+	 * Doubles the table capacity
+	 */
+	protected void grow() {
+		int[] ids = tableIDs;
+		Host[] hosts = tableHosts;
+		int[] sequences = tableSequences;
+		int[] incarnations = tableIncarnations;
+		int[] intervals = tableIntervals;
+		tableIDs = new int[ids.length * 2];
+		tableHosts = new Host[ids.length * 2];
+		tableSequences = new int[ids.length * 2];
+		tableIncarnations = new int[ids.length * 2];
+		tableIntervals = new int[ids.length * 2];
+		for (int i = 0; i < ids.length; i++) {
+			if (hosts[i] == null)
+				continue;
+			int slot = findSlot(ids[i]);
+			tableIDs[slot] = ids[i];
+			tableHosts[slot] = hosts[i];
+			tableSequences[slot] = sequences[i];
+			tableIncarnations[slot] = incarnations[i];
+			tableIntervals[slot] = intervals[i];
+		}
+	}
+
+}
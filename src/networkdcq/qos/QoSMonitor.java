@@ -18,7 +18,8 @@ import java.util.ArrayList;
 import networkdcq.Host;
 import networkdcq.NetworkApplicationData;
 import networkdcq.NetworkDCQ;
-import networkdcq.discovery.HostDiscovery;
+import networkdcq.NetworkDCQRuntime;
+import networkdcq.util.IterateableConcurrentHashMap;
 import networkdcq.util.Logger;
 import networkdcq.util.MemoryUtils;
 import android.content.Context;
@@ -30,11 +31,14 @@ public abstract class QoSMonitor {
 	/** Strength levels count for a wireless network */
 	public static final int WIFI_STRENGTH_LEVELS = 10;
 	/** Current network scan */
-	public static QoSScanResult currentScan = null; 
-	public static final Object LOCK = new Object();
+	protected QoSScanResult currentScan = null; 
+	/** Notified when a test message returns */
+	protected final Object lock = new Object();
 	
 	/** Application context */
 	protected Context context = null;
+	/** Runtime this instance belongs to */
+	protected NetworkDCQRuntime runtime = null;
 	
 	/** Collection of scan results */
 	public ArrayList<QoSScanResult> scanResults = new ArrayList<QoSScanResult>();
@@ -50,7 +54,7 @@ public abstract class QoSMonitor {
 	 * 		message the base object message to use for calculation
 	 * @param 
 	 * 		targetHostQty the amount of target hosts to send the message.  The total amount of hosts
-	 * 		in the network can be obtained through <code>HostDiscovery.otherHosts.size()</code>
+	 * 		in the network can be obtained through <code>NetworkDCQRuntime.getOtherHosts().size()</code>
 	 * @return 
 	 * 		a value equal or greater than 0, or -1 in case of an error
 	 */
@@ -75,12 +79,13 @@ public abstract class QoSMonitor {
 	public int estimateRealMPS(NetworkApplicationData message, Host targetHost, boolean reusePreviousScan) {
 		try {
 			// no other hosts? nothing to do
-			if (HostDiscovery.otherHosts.size() == 0)
+			IterateableConcurrentHashMap<String, Host> otherHosts = getRuntime().getOtherHosts();
+			if (otherHosts.size() == 0)
 				return -1;
 
 			// can we use a previous scan or the network/hosts/etc changed too much?
 			if (reusePreviousScan) {
-				int previousScan = reusePreviousScan(getNetworkSpeed(), HostDiscovery.otherHosts.size(), 30);
+				int previousScan = reusePreviousScan(getNetworkSpeed(), otherHosts.size(), 30);
 				if (previousScan >= 0)
 					return scanResults.get(previousScan).estimatedMPS;
 			}
@@ -95,19 +100,19 @@ public abstract class QoSMonitor {
 			if (targetHost != null)
 				targetHosts.add(targetHost);
 			else
-				targetHosts = HostDiscovery.otherHosts.getValueList();
+				targetHosts = otherHosts.getValueList();
 
 			// Iterate the hosts collection
 			long intervalMS = 0;
 			QoSMonitorTestMessage testMessage = new QoSMonitorTestMessage();
 			for (Host aHost : targetHosts) {
 				testMessage = new QoSMonitorTestMessage();
-				testMessage.setSourceHost(HostDiscovery.thisHost);
+				testMessage.setSourceHost(getRuntime().getThisHost());
 				long start = System.currentTimeMillis();
-				NetworkDCQ.getCommunication().sendMessage(aHost, testMessage);
+				getRuntime().getCommunication().sendMessage(aHost, testMessage);
 				// Wait for answer with a timeout in order to avoid blocking this thread
-				synchronized(LOCK){
-				    LOCK.wait(1000);
+				synchronized(lock){
+				    lock.wait(1000);
 				}
 				long finish = System.currentTimeMillis();
 				intervalMS += finish - start;
@@ -224,6 +229,31 @@ public abstract class QoSMonitor {
 
 	
 
+	/**
+	 * Notifies the scan waiting for a test message that it returned from the target host
+	 */
+	public void testMessageReturned() {
+		synchronized (lock) {
+			lock.notify();
+		}
+	}
+
+	/**
+	 * Default Getter
+	 * @return the runtime this instance belongs to, or the default runtime if not set
+	 */
+	public NetworkDCQRuntime getRuntime() {
+		return runtime != null ? runtime : NetworkDCQ.getRuntime();
+	}
+
+	/**
+	 * Default Setter
+	 * @param runtime the runtime this instance belongs to
+	 */
+	public void setRuntime(NetworkDCQRuntime runtime) {
+		this.runtime = runtime;
+	}
+
 	public void setContext(Context context) {
 		this.context = context;
 	}
@@ -17,23 +17,32 @@ public class QoSMonitorFactory {
 	}
 	
 	/**
-	 * Factory for QosMonitor implementations
+	 * Factory for QosMonitor implementations.  Always returns the same instance, which is used by the default runtime
 	 * @param 
 	 * 		type identifier for default QosMonitor
 	 * @return 
 	 * 		an instance of the selected QosMonitor implementation, or null otherwise
 	 */
 	public static QoSMonitor getQosMonitor(int type) {
-		if (instance != null)
-			return instance;
+		if (instance == null)
+			instance = createQosMonitor(type);
+		return instance;
+	}
+
+	/**
+	 * Creates a new QosMonitor instance, for a new {@code NetworkDCQRuntime}
+	 * @param 
+	 * 		type identifier for QosMonitor
+	 * @return 
+	 * 		a new instance of the selected QosMonitor implementation, or null otherwise
+	 */
+	public static QoSMonitor createQosMonitor(int type) {
 		switch (type) {
 			case QOS_MONITOR_WIFI:
-				instance = new WiFiQoSMonitor(); 
-				break;
+				return new WiFiQoSMonitor(); 
 			default:
 				return null;
 		}
-		return instance;
 	}
 
 
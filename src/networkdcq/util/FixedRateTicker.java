@@ -0,0 +1,160 @@
+package networkdcq.util;
+
+/**
+ * Fixed-rate tick scheduler.  Tick deadlines are computed from the start time (start + n * period), instead
+ * of sleeping a period after the work of every tick, so the work time does not add up to the period and
+ * the rate does not drift.  When the work overruns one or more ticks, the missed ticks are either run
+ * back to back ({@code POLICY_CATCH_UP}) or skipped but the latest, keeping the phase ({@code POLICY_SKIP}).
+ * The actual period, its jitter and the overruns are measured.
+ */
+
+public class FixedRateTicker {
+
+	/** Missed ticks run back to back, until the schedule is reached */
+	public static final int POLICY_CATCH_UP = 0;
+	/** Missed ticks are skipped: only the latest one runs, late, and the next ones are back on schedule */
+	public static final int POLICY_SKIP = 1;
+
+	/** Nominal period (ns) */
+	protected final long periodNS;
+	/** {@code POLICY_CATCH_UP} or {@code POLICY_SKIP} */
+	protected final int policy;
+	/** Deadline of the next tick (System.nanoTime()) */
+	protected long deadlineNS;
+	/** Start of the last tick (System.nanoTime()), or 0 before the first tick */
+	protected long lastTickNS = 0;
+	/** Ticks run */
+	protected volatile long ticks = 0;
+	/** Ticks whose work ended after the next deadline */
+	protected volatile long overruns = 0;
+	/** Ticks skipped ({@code POLICY_SKIP}) */
+	protected volatile long skipped = 0;
+	/** Max delay of a tick start from its deadline (ns) */
+	protected volatile long maxLatenessNS = 0;
+	/** Measured periods */
+	protected volatile long periods = 0;
+	/** Sum of the measured periods (ns) */
+	protected volatile double periodSum = 0;
+	/** Sum of the squared measured periods (ns^2) */
+	protected volatile double periodSumSquares = 0;
+
+	/**
+	 * Creates a ticker
+	 * @param periodNS nominal period (ns)
+	 * @param policy {@code POLICY_CATCH_UP} or {@code POLICY_SKIP}
+	 */
+	public FixedRateTicker(long periodNS, int policy) {
+		if (periodNS <= 0)
+			throw new IllegalArgumentException("Invalid period: " + periodNS);
+		this.periodNS = periodNS;
+		this.policy = policy;
+		start();
+	}
+
+	/**
+	 * Restarts the schedule: the first tick is due now.  Statistics are kept
+	 */
+	public void start() {
+		deadlineNS = System.nanoTime();
+		lastTickNS = 0;
+	}
+
+	/**
+	 * Waits until the deadline of the next tick.  Must be invoked by a single thread, before every tick
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void awaitTick() throws InterruptedException {
+		long nowNS = System.nanoTime();
+		if (lastTickNS != 0) {
+			// Work of the previous tick ended after this deadline
+			if (nowNS - deadlineNS > 0) {
+				overruns++;
+				if (policy == POLICY_SKIP) {
+					// Only the latest missed tick is run (right now)
+					long missed = (nowNS - deadlineNS) / periodNS;
+					skipped += missed;
+					deadlineNS += missed * periodNS;
+				}
+			}
+		}
+		long waitNS = deadlineNS - nowNS;
+		if (waitNS > 0) {
+			Thread.sleep(waitNS / 1000000, (int)(waitNS % 1000000));
+			nowNS = System.nanoTime();
+		}
+		long latenessNS = nowNS - deadlineNS;
+		if (latenessNS > maxLatenessNS)
+			maxLatenessNS = latenessNS;
+		if (lastTickNS != 0) {
+			double period = nowNS - lastTickNS;
+			periodSum += period;
+			periodSumSquares += period * period;
+			periods++;
+		}
+		lastTickNS = nowNS;
+		deadlineNS += periodNS;
+		ticks++;
+	}
+
+	/**
+	 * @return nominal period (ns)
+	 */
+	public long getPeriodNS() {
+		return periodNS;
+	}
+
+	/**
+	 * @return ticks run
+	 */
+	public long getTicks() {
+		return ticks;
+	}
+
+	/**
+	 * @return ticks whose work ended after the deadline of the following tick
+	 */
+	public long getOverruns() {
+		return overruns;
+	}
+
+	/**
+	 * @return ticks skipped ({@code POLICY_SKIP})
+	 */
+	public long getSkippedTicks() {
+		return skipped;
+	}
+
+	/**
+	 * @return max delay of a tick start from its deadline (ns)
+	 */
+	public long getMaxLatenessNS() {
+		return maxLatenessNS;
+	}
+
+	/**
+	 * @return mean time between tick starts (ns), or the nominal period before the second tick
+	 */
+	public double getMeanPeriodNS() {
+		long count = periods;
+		return count > 0 ? periodSum / count : periodNS;
+	}
+
+	/**
+	 * @return standard deviation of the time between tick starts (ns)
+	 */
+	public double getJitterNS() {
+		long count = periods;
+		if (count == 0)
+			return 0;
+		double mean = periodSum / count;
+		return Math.sqrt(Math.max(0, periodSumSquares / count - mean * mean));
+	}
+
+	/**
+	 * @return tick statistics
+	 */
+	public String toString() {
+		return String.format("period: %.3fms (nominal %.3fms), jitter: %.3fms, max lateness: %.3fms, ticks: %d, overruns: %d, skipped: %d",
+				getMeanPeriodNS() / 1e6, periodNS / 1e6, getJitterNS() / 1e6, maxLatenessNS / 1e6, ticks, overruns, skipped);
+	}
+}
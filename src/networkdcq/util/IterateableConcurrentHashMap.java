@@ -1,9 +1,11 @@
 package networkdcq.util;
 
 /**
- * A ConcurrentHashMap which mantains a separate keyList and valueList in order to avoid
+ * A ConcurrentHashMap which mantains an immutable snapshot of its keys and values in order to avoid
  * creating new instances when using tratidional methods like keySet() or values(), hence
  * this type is useful for cases in which iterations over a hashmap is frequently called.
+ * The snapshot is rebuilt only after the map changes (on the first read following the change) and
+ * is published atomically, so iterating it is safe while other threads add or remove entries.
  */
 
 import java.util.ArrayList;
@@ -14,35 +16,90 @@ public class IterateableConcurrentHashMap<K, V> extends ConcurrentHashMap<K, V>
 
 	/** Class version */
 	private static final long serialVersionUID = 1L;
-	/** A list containing the keys of the map */
-	protected ArrayList<K> keyList = new ArrayList<K>();
-	/** A list containing the values of the map */
-	protected ArrayList<V> valueList =  new ArrayList<V>();
-	
+	/** Current snapshot, or null if the map changed since it was built */
+	protected transient volatile Snapshot<K, V> snapshot = null;
+
+	/**
+	 * Immutable view of the map entries at a given time.  Keys and values
+	 * at the same position belong to the same entry.
+	 */
+	public static class Snapshot<K, V> {
+
+		/** Keys of the map */
+		protected final Object[] keys;
+		/** Values of the map */
+		protected final Object[] values;
+
+		protected Snapshot(Object[] keys, Object[] values) {
+			this.keys = keys;
+			this.values = values;
+		}
+
+		public int size() {
+			return keys.length;
+		}
+
+		@SuppressWarnings("unchecked")
+		public K keyAt(int pos) {
+			return (K)keys[pos];
+		}
+
+		@SuppressWarnings("unchecked")
+		public V valueAt(int pos) {
+			return (V)values[pos];
+		}
+	}
+
+	/**
+	 * Returns the current snapshot of the map.  Does not allocate unless the map changed since the last call
+	 * @return an immutable view of the keys and values
+	 */
+	public Snapshot<K, V> snapshot() {
+		Snapshot<K, V> current = snapshot;
+		if (current != null)
+			return current;
+		return rebuildSnapshot();
+	}
+
+	/**
+	 * Builds and publishes a new snapshot from the map contents
+	 * @return the new snapshot
+	 */
+	protected synchronized Snapshot<K, V> rebuildSnapshot() {
+		if (snapshot != null)
+			return snapshot;
+		Object[] keys = new Object[size()];
+		Object[] values = new Object[keys.length];
+		int i = 0;
+		for (Map.Entry<K, V> entry : entrySet()) {
+			keys[i] = entry.getKey();
+			values[i] = entry.getValue();
+			i++;
+		}
+		snapshot = new Snapshot<K, V>(keys, values);
+		return snapshot;
+	}
+
 	@Override
 	public synchronized V put(K key, V value) {
-		super.put(key, value);
-		keyList.remove(key);
-		valueList.remove(value);
-		keyList.add(key);
-		valueList.add(value);
+		// Unchanged entry?  Then the snapshot is still valid
+		if (super.put(key, value) != value)
+			snapshot = null;
 		return value;
 	}
-	
+
 	@Override
 	public synchronized V replace(K key, V value) {
-		if (containsKey(key)) {
-			valueList.set(keyList.indexOf(key), value);
+		if (containsKey(key))
 			return put(key, value);
-		}
 		return null;
 	}
-	
+
 	@Override
 	public void putAll(Map<? extends K, ? extends V> m) {
 		throw new RuntimeException("Method putAll() for type IterateableConcurrentHashMap not implemented yet");
 	}
-	
+
 	@Override
 	public synchronized boolean replace(K key, V oldValue, V newValue) {
 		if (containsKey(key) && get(key).equals(oldValue)) {
@@ -51,12 +108,12 @@ public class IterateableConcurrentHashMap<K, V> extends ConcurrentHashMap<K, V>
 		}
 		return false;
 	}
-	
+
 	@Override
 	public synchronized V remove(Object key) {
 		V value = super.remove(key);
-		keyList.remove(key);
-		valueList.remove(value);
+		if (value != null)
+			snapshot = null;
 		return value;
 	}
 
@@ -68,37 +125,51 @@ public class IterateableConcurrentHashMap<K, V> extends ConcurrentHashMap<K, V>
 		}
 		return false;
 	}
-	
+
 	@Override
 	public synchronized void clear() {
 		super.clear();
-		keyList.clear();
-		valueList.clear();
+		snapshot = null;
 	}
 
-	@Override	
+	@Override
 	public V putIfAbsent(K key, V value) {
 		if (!containsKey(key)) {
 			return put(key, value);
 		}
 		return get(key);
 	};
-	
-	
+
+	/**
+	 * @return a new list containing the keys of the map.  Use {@link #snapshot()} for frequent iterations
+	 */
+	@SuppressWarnings("unchecked")
 	public ArrayList<K> getKeyList() {
+		Snapshot<K, V> current = snapshot();
+		ArrayList<K> keyList = new ArrayList<K>(current.size());
+		for (Object key : current.keys)
+			keyList.add((K)key);
 		return keyList;
 	}
 
+	/**
+	 * @return a new list containing the values of the map.  Use {@link #snapshot()} for frequent iterations
+	 */
+	@SuppressWarnings("unchecked")
 	public ArrayList<V> getValueList() {
+		Snapshot<K, V> current = snapshot();
+		ArrayList<V> valueList = new ArrayList<V>(current.size());
+		for (Object value : current.values)
+			valueList.add((V)value);
 		return valueList;
 	}
 
 	public K getKeyAt(int pos) {
-		return keyList.get(pos);
+		return snapshot().keyAt(pos);
 	}
-	
+
 	public V getValueAt(int pos) {
-		return valueList.get(pos);
+		return snapshot().valueAt(pos);
 	}
 
 }
@@ -57,7 +57,7 @@ public class Logger {
 		return (
 			new StringBuffer("[")
 				// LocalHost information
-				.append(HostDiscovery.thisHost)
+				.append(HostDiscovery.getResolvedThisHost() != null ? HostDiscovery.getResolvedThisHost() : "")
 				.append(" - ")
 				// [0] es getThreadStackTrace, [1] es getStackTrace(), [2] es formatMsg(), 
 				// [3] es el metodo segun nivel de log, [4] es el método buscado
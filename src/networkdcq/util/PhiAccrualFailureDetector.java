@@ -0,0 +1,140 @@
+package networkdcq.util;
+
+/**
+ * Phi-accrual failure detector (Hayashibara et al.).  Keeps a sliding window of heartbeat inter-arrival
+ * times, and expresses the suspicion of a failure as phi = -log10(P(a heartbeat arrives later than now)),
+ * assuming normally distributed intervals.  The threshold therefore adapts to the observed jitter:
+ * a host on a congested network is given more time than a host on a quiet one.
+ * The normal CDF is approximated with a logistic function, as done by Akka and Cassandra.
+ */
+
+public class PhiAccrualFailureDetector {
+
+	/** Inter-arrival times (ms), ring buffer */
+	protected long[] intervals;
+	/** Samples in the window */
+	protected int count = 0;
+	/** Next position of the ring buffer */
+	protected int next = 0;
+	/** Sum of the samples in the window */
+	protected double sum = 0;
+	/** Sum of the squared samples in the window */
+	protected double sumSquares = 0;
+	/** Last heartbeat (ms), or -1 before the first one */
+	protected long lastHeartbeatMS = -1;
+	/** Lower bound of the standard deviation (ms), avoids a too sharp distribution on quiet networks */
+	protected int minStdDeviationMS;
+	/** Heartbeat delay tolerated on top of the mean (ms) */
+	protected int acceptablePauseMS;
+
+	/**
+	 * Creates a detector.  The window is seeded with the expected interval, so it can be used from the first heartbeat
+	 * @param windowSize amount of inter-arrival times kept
+	 * @param expectedIntervalMS expected time between heartbeats (ms)
+	 * @param minStdDeviationMS lower bound of the standard deviation (ms)
+	 * @param acceptablePauseMS heartbeat delay tolerated on top of the mean (ms)
+	 */
+	public PhiAccrualFailureDetector(int windowSize, int expectedIntervalMS, int minStdDeviationMS, int acceptablePauseMS) {
+		this.intervals = new long[Math.max(2, windowSize)];
+		this.minStdDeviationMS = minStdDeviationMS;
+		reset(expectedIntervalMS, acceptablePauseMS);
+	}
+
+	/**
+	 * Forgets the inter-arrival times, for example when the heartbeat rate of the monitored host changes.
+	 * The window is seeded with the new expected interval; the last heartbeat is kept
+	 * @param expectedIntervalMS expected time between heartbeats (ms)
+	 * @param acceptablePauseMS heartbeat delay tolerated on top of the mean (ms)
+	 */
+	public synchronized void reset(int expectedIntervalMS, int acceptablePauseMS) {
+		this.acceptablePauseMS = acceptablePauseMS;
+		count = 0;
+		next = 0;
+		sum = 0;
+		sumSquares = 0;
+		// Mean = expected interval, standard deviation = expected interval / 4
+		add(expectedIntervalMS - expectedIntervalMS / 4);
+		add(expectedIntervalMS + expectedIntervalMS / 4);
+	}
+
+	/**
+	 * Registers a heartbeat
+	 * @param nowMS heartbeat arrival time (ms)
+	 */
+	public synchronized void heartbeat(long nowMS) {
+		if (lastHeartbeatMS >= 0 && nowMS >= lastHeartbeatMS)
+			add(nowMS - lastHeartbeatMS);
+		lastHeartbeatMS = nowMS;
+	}
+
+	/**
+	 * Computes the current suspicion level
+	 * @param nowMS current time (ms)
+	 * @return phi: 1 means a 10% chance of a false positive, 2 a 1% chance, 3 a 0.1% chance...
+	 */
+	public synchronized double phi(long nowMS) {
+		if (lastHeartbeatMS < 0)
+			return 0;
+		double y = (nowMS - lastHeartbeatMS - getMeanMS() - acceptablePauseMS) / getStdDeviationMS();
+		double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+		if (y > 0)
+			return -Math.log10(e / (1.0 + e));
+		return -Math.log10(1.0 - 1.0 / (1.0 + e));
+	}
+
+	/**
+	 * Computes the time without heartbeats after which phi reaches the threshold
+	 * @param threshold phi threshold (greater than 0.31, the phi at the mean)
+	 * @return time since the last heartbeat (ms)
+	 */
+	public synchronized long getTimeoutMS(double threshold) {
+		// Solves y * (1.5976 + 0.070566 * y^2) = ln((1 - p) / p), p = 10^-threshold (Newton's method)
+		double p = Math.pow(10, -threshold);
+		double target = Math.log((1.0 - p) / p);
+		double y = Math.max(0, target / 1.5976);
+		for (int i = 0; i < 8; i++)
+			y -= (y * (1.5976 + 0.070566 * y * y) - target) / (1.5976 + 3 * 0.070566 * y * y);
+		return (long)Math.ceil(getMeanMS() + acceptablePauseMS + Math.max(0, y) * getStdDeviationMS());
+	}
+
+	/**
+	 * @return mean of the inter-arrival times in the window (ms)
+	 */
+	public synchronized double getMeanMS() {
+		return sum / count;
+	}
+
+	/**
+	 * @return standard deviation of the inter-arrival times in the window (ms), at least the configured minimum
+	 */
+	public synchronized double getStdDeviationMS() {
+		double mean = sum / count;
+		double variance = Math.max(0, sumSquares / count - mean * mean);
+		return Math.max(Math.sqrt(variance), minStdDeviationMS);
+	}
+
+	/**
+	 * @return last heartbeat (ms), or -1 before the first one
+	 */
+	public synchronized long getLastHeartbeatMS() {
+		return lastHeartbeatMS;
+	}
+
+	/**
+	 * Adds an inter-arrival time to the window, replacing the oldest one if full
+	 * @param intervalMS the inter-arrival time (ms)
+	 */
+	protected void add(long intervalMS) {
+		if (count == intervals.length) {
+			long oldest = intervals[next];
+			sum -= oldest;
+			sumSquares -= (double)oldest * oldest;
+		}
+		else
+			count++;
+		intervals[next] = intervalMS;
+		sum += intervalMS;
+		sumSquares += (double)intervalMS * intervalMS;
+		next = (next + 1) % intervals.length;
+	}
+}
@@ -0,0 +1,120 @@
+package networkdcq.util;
+
+/**
+ * Hashed timer wheel.  Deadlines are rounded up to ticks and stored in the slot of their tick, so scheduling
+ * is O(1) and advancing the wheel only visits the slots of the elapsed ticks.  Deadlines further than one
+ * revolution stay in their slot until the revolution they belong to.  An item may be scheduled again
+ * when it expires, which allows owners to re-arm lazily: update the item deadline elsewhere, and on
+ * expiration schedule it again if the deadline moved.
+ */
+
+import java.util.ArrayList;
+
+public class TimerWheel<T> {
+
+	/**
+	 * A scheduled item
+	 */
+	protected static class Timeout<T> {
+		/** The item */
+		protected T item;
+		/** Tick the item expires at */
+		protected long deadlineTick;
+		/** Next timeout of the same slot */
+		protected Timeout<T> next;
+	}
+
+	/** Tick duration (ms) */
+	protected final long tickMS;
+	/** Slots (size is a power of two) */
+	protected final Timeout<T>[] slots;
+	/** Slot index mask */
+	protected final int mask;
+	/** Last processed tick */
+	protected long currentTick;
+	/** Scheduled items */
+	protected int size = 0;
+
+	/**
+	 * Creates a wheel starting at the current time
+	 * @param tickMS tick duration (ms): the expiration precision
+	 * @param slotCount minimum amount of slots.  Rounded up to a power of two
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public TimerWheel(long tickMS, int slotCount) {
+		int capacity = 1;
+		while (capacity < slotCount)
+			capacity <<= 1;
+		this.tickMS = tickMS;
+		this.slots = new Timeout[capacity];
+		this.mask = capacity - 1;
+		this.currentTick = System.currentTimeMillis() / tickMS;
+	}
+
+	/**
+	 * Schedules an item.  Deadlines already due expire on the next tick
+	 * @param item the item
+	 * @param deadlineMS expiration time (System.currentTimeMillis() based)
+	 */
+	public synchronized void schedule(T item, long deadlineMS) {
+		Timeout<T> timeout = new Timeout<T>();
+		timeout.item = item;
+		timeout.deadlineTick = Math.max((deadlineMS + tickMS - 1) / tickMS, currentTick + 1);
+		int slot = (int)(timeout.deadlineTick & mask);
+		timeout.next = slots[slot];
+		slots[slot] = timeout;
+		size++;
+	}
+
+	/**
+	 * Advances the wheel up to the given time, removing the expired items
+	 * @param nowMS current time (System.currentTimeMillis() based)
+	 * @param expired list the expired items are added to
+	 */
+	public synchronized void expire(long nowMS, ArrayList<T> expired) {
+		long targetTick = nowMS / tickMS;
+		// A whole revolution visits every slot
+		long firstTick = Math.max(currentTick + 1, targetTick - mask);
+		for (long tick = firstTick; tick <= targetTick; tick++) {
+			int slot = (int)(tick & mask);
+			Timeout<T> previous = null;
+			for (Timeout<T> timeout = slots[slot]; timeout != null; timeout = timeout.next) {
+				if (timeout.deadlineTick > targetTick) {
+					previous = timeout;
+					continue;
+				}
+				if (previous == null)
+					slots[slot] = timeout.next;
+				else
+					previous.next = timeout.next;
+				expired.add(timeout.item);
+				size--;
+			}
+		}
+		if (targetTick > currentTick)
+			currentTick = targetTick;
+	}
+
+	/**
+	 * Removes every scheduled item
+	 */
+	public synchronized void clear() {
+		for (int i = 0; i < slots.length; i++)
+			slots[i] = null;
+		size = 0;
+	}
+
+	/**
+	 * @return scheduled items
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @return tick duration (ms)
+	 */
+	public long getTickMS() {
+		return tickMS;
+	}
+}